@@ -54,8 +54,11 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
-        tableMap.put(name, new Table(file, pkeyField));
+        Table old = tableMap.put(name, new Table(file, pkeyField));
         idMap.put(file.getId(), name);
+        if (old != null && old.dbFile != file) {
+            closeFile(old.dbFile);
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -138,12 +141,24 @@ public class Catalog {
         return idMap.get(id);
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog and close their files */
     public void clear() {
         // some code goes here
+        for (Table table : tableMap.values()) {
+            closeFile(table.dbFile);
+        }
         tableMap.clear();
         idMap.clear();
     }
+
+    private static void closeFile(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // the table is going away anyway, nothing is left to lose
+            e.printStackTrace();
+        }
+    }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
@@ -0,0 +1,106 @@
+package simpledb.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log2Histogram counts non-negative values in buckets whose bounds grow by
+ * powers of two: bucket 0 holds 0, bucket i holds values in
+ * [2^(i-1), 2^i). It is cheap enough to record every commit or every batch,
+ * at the cost of answering percentiles only to within a factor of two.
+ *
+ * @Threadsafe
+ */
+public class Log2Histogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /** Add a value; negative values are counted as 0. */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    private static int bucketOf(long value) {
+        return BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+
+    /** @return the smallest value that falls into bucket i */
+    public static long lowerBound(int i) {
+        return i == 0 ? 0 : 1L << (i - 1);
+    }
+
+    public int getNumBuckets() {
+        return BUCKETS;
+    }
+
+    /** @return the number of values recorded in bucket i */
+    public long getBucketCount(int i) {
+        return buckets.get(i);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    /**
+     * @param p a fraction between 0 and 1
+     * @return an upper bound for the p-th percentile of the recorded values,
+     *   at most twice the true value, or 0 if nothing was recorded
+     */
+    public long getPercentile(double p) {
+        long n = getCount();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(lowerBound(i + 1) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("count=").append(getCount())
+          .append(" mean=").append(String.format("%.1f", getMean()))
+          .append(" p50=").append(getPercentile(0.5))
+          .append(" p99=").append(getPercentile(0.99))
+          .append(" max=").append(getMax());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,268 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}, with the same
+ * output.  Groups are numbered as they are first seen; each batch is
+ * first mapped to group numbers and then folded into plain int arrays of
+ * per-group state, one loop per aggregate.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    // group state, indexed by group number
+    private transient int groups;
+    private transient int[] intKeys;
+    private transient String[] stringKeys;
+    private transient int[] values;
+    private transient int[] counts;
+    // int group keys: open addressing table from key to group number + 1
+    private transient int[] slotKeys;
+    private transient int[] slotGroups;
+    private transient Map<String, Integer> stringGroups;
+    private transient int[] gids;
+
+    private transient ColumnBatch out;
+    private transient int emitted;
+
+    /**
+     * @param child The BatchIterator that is feeding us rows.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if
+     *               there is no grouping
+     * @param aop    The aggregation operator to use
+     * @throws IllegalArgumentException if aop is not supported for the type
+     *   of afield
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        boolean intField = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        if (intField ? aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG
+                : aop != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException("unsupported aggregate " + aop + " over "
+                    + child.getTupleDesc().getFieldType(afield));
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        // named exactly like Aggregate's output
+        this.td = new Aggregate(new TupleAdapter(child), afield, gfield, aop).getTupleDesc();
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        groups = 0;
+        intKeys = new int[16];
+        stringKeys = new String[16];
+        values = new int[16];
+        counts = new int[16];
+        slotKeys = new int[64];
+        slotGroups = new int[64];
+        stringGroups = new HashMap<>();
+        gids = new int[ColumnBatch.DEFAULT_CAPACITY];
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            merge(batch);
+        }
+        out = new ColumnBatch(td, ColumnBatch.DEFAULT_CAPACITY);
+        emitted = 0;
+    }
+
+    private void merge(ColumnBatch batch) {
+        int count = batch.count();
+        if (gids.length < count) {
+            gids = new int[batch.capacity()];
+        }
+        if (gfield == Aggregator.NO_GROUPING) {
+            if (groups == 0) {
+                newGroup();
+            }
+            Arrays.fill(gids, 0, count, 0);
+        } else if (child.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE) {
+            int[] keys = batch.ints(gfield);
+            for (int i = 0; i < count; i++) {
+                gids[i] = intGroup(keys[batch.row(i)]);
+            }
+        } else {
+            String[] keys = batch.strings(gfield);
+            for (int i = 0; i < count; i++) {
+                String key = keys[batch.row(i)];
+                Integer g = stringGroups.get(key);
+                if (g == null) {
+                    g = newGroup();
+                    stringKeys[g] = key;
+                    stringGroups.put(key, g);
+                }
+                gids[i] = g;
+            }
+        }
+
+        if (aop == Aggregator.Op.COUNT) {
+            for (int i = 0; i < count; i++) {
+                counts[gids[i]]++;
+            }
+            return;
+        }
+        int[] col = batch.ints(afield);
+        switch (aop) {
+            case MIN:
+                for (int i = 0; i < count; i++) {
+                    int g = gids[i];
+                    values[g] = Math.min(values[g], col[batch.row(i)]);
+                }
+                break;
+            case MAX:
+                for (int i = 0; i < count; i++) {
+                    int g = gids[i];
+                    values[g] = Math.max(values[g], col[batch.row(i)]);
+                }
+                break;
+            default:
+                // SUM and AVG
+                for (int i = 0; i < count; i++) {
+                    int g = gids[i];
+                    values[g] += col[batch.row(i)];
+                    counts[g]++;
+                }
+                break;
+        }
+    }
+
+    /** @return the number of the group of an int key, adding it if it is new */
+    private int intGroup(int key) {
+        int mask = slotKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (slotGroups[slot] != 0) {
+            if (slotKeys[slot] == key) {
+                return slotGroups[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int g = newGroup();
+        intKeys[g] = key;
+        slotKeys[slot] = key;
+        slotGroups[slot] = g + 1;
+        if (groups * 2 > slotKeys.length) {
+            rehash();
+        }
+        return g;
+    }
+
+    private void rehash() {
+        int[] oldKeys = slotKeys;
+        int[] oldGroups = slotGroups;
+        slotKeys = new int[oldKeys.length * 2];
+        slotGroups = new int[oldKeys.length * 2];
+        int mask = slotKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldGroups[i] == 0) {
+                continue;
+            }
+            int slot = hash(oldKeys[i]) & mask;
+            while (slotGroups[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slotKeys[slot] = oldKeys[i];
+            slotGroups[slot] = oldGroups[i];
+        }
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int newGroup() {
+        if (groups == values.length) {
+            int n = groups * 2;
+            intKeys = Arrays.copyOf(intKeys, n);
+            stringKeys = Arrays.copyOf(stringKeys, n);
+            values = Arrays.copyOf(values, n);
+            counts = Arrays.copyOf(counts, n);
+        }
+        if (aop == Aggregator.Op.MIN) {
+            values[groups] = Integer.MAX_VALUE;
+        } else if (aop == Aggregator.Op.MAX) {
+            values[groups] = Integer.MIN_VALUE;
+        }
+        return groups++;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("BatchAggregate not yet open");
+        }
+        if (emitted == groups) {
+            return null;
+        }
+        out.clear();
+        int n = Math.min(groups - emitted, out.capacity());
+        int aggCol = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        int[] res = out.ints(aggCol);
+        for (int i = 0; i < n; i++) {
+            int g = emitted + i;
+            switch (aop) {
+                case COUNT:
+                    res[i] = counts[g];
+                    break;
+                case AVG:
+                    res[i] = values[g] / counts[g];
+                    break;
+                default:
+                    res[i] = values[g];
+                    break;
+            }
+        }
+        if (aggCol == 1) {
+            if (td.getFieldType(0) == Type.INT_TYPE) {
+                System.arraycopy(intKeys, emitted, out.ints(0), 0, n);
+            } else {
+                System.arraycopy(stringKeys, emitted, out.strings(0), 0, n);
+            }
+        }
+        out.setSize(n);
+        emitted += n;
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        emitted = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+        out = null;
+        stringGroups = null;
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}.  It evaluates the
+ * predicate over a whole column at a time and narrows the selection
+ * vector of the child's batch; the column values are never copied.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final Predicate p;
+    private final BatchIterator child;
+    private transient int[] sel;
+
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        sel = new int[ColumnBatch.DEFAULT_CAPACITY];
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (sel == null) {
+            throw new IllegalStateException("BatchFilter not yet open");
+        }
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            if (sel.length < batch.capacity()) {
+                sel = new int[batch.capacity()];
+            }
+            int n;
+            if (child.getTupleDesc().getFieldType(p.getField()) == Type.INT_TYPE) {
+                n = filterInts(batch, batch.ints(p.getField()), ((IntField) p.getOperand()).getValue());
+            } else {
+                n = filterStrings(batch, batch.strings(p.getField()), ((StringField) p.getOperand()).getValue());
+            }
+            if (n > 0) {
+                batch.select(sel, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the rows of batch whose value in col passes the predicate
+     * against v to sel.  There is one tight loop per operator, so the
+     * comparison is not dispatched again for every row.
+     *
+     * @return the number of rows selected
+     */
+    private int filterInts(ColumnBatch batch, int[] col, int v) {
+        int count = batch.count();
+        int n = 0;
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < count; i++) {
+                    int r = batch.row(i);
+                    sel[n] = r;
+                    n += col[r] == v ? 1 : 0;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < count; i++) {
+                    int r = batch.row(i);
+                    sel[n] = r;
+                    n += col[r] != v ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < count; i++) {
+                    int r = batch.row(i);
+                    sel[n] = r;
+                    n += col[r] > v ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < count; i++) {
+                    int r = batch.row(i);
+                    sel[n] = r;
+                    n += col[r] >= v ? 1 : 0;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < count; i++) {
+                    int r = batch.row(i);
+                    sel[n] = r;
+                    n += col[r] < v ? 1 : 0;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < count; i++) {
+                    int r = batch.row(i);
+                    sel[n] = r;
+                    n += col[r] <= v ? 1 : 0;
+                }
+                break;
+        }
+        return n;
+    }
+
+    /** The same for a string column, with the semantics of StringField.compare. */
+    private int filterStrings(ColumnBatch batch, String[] col, String v) {
+        int count = batch.count();
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int r = batch.row(i);
+            boolean pass;
+            if (p.getOp() == Predicate.Op.LIKE) {
+                pass = col[r].contains(v);
+            } else {
+                int c = col[r].compareTo(v);
+                switch (p.getOp()) {
+                    case EQUALS: pass = c == 0; break;
+                    case NOT_EQUALS: pass = c != 0; break;
+                    case GREATER_THAN: pass = c > 0; break;
+                    case GREATER_THAN_OR_EQ: pass = c >= 0; break;
+                    case LESS_THAN: pass = c < 0; break;
+                    default: pass = c <= 0; break;
+                }
+            }
+            if (pass) {
+                sel[n++] = r;
+            }
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        sel = null;
+    }
+}
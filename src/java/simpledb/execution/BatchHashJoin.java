@@ -0,0 +1,428 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * BatchHashJoin is the batch version of {@link HashEquiJoin}.  If the left
+ * child fits in the memory budget, {@link HashEquiJoin#MAP_SIZE} rows by
+ * default, it is hashed and probed with one pass over the right child.
+ * Otherwise both children are written to {@link HashEquiJoin#PARTITIONS}
+ * spill files by the hash of the join field and joined one partition at a
+ * time; a partition larger than the budget is joined in chunks, reading
+ * its right side once per chunk.  The loaded rows are kept as columns and
+ * chained into an array-based hash table; matching pairs of rows are
+ * collected first and then copied to the output column by column.
+ */
+public class BatchHashJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private final BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final boolean intKey;
+    private int memoryBudget = HashEquiJoin.MAP_SIZE;
+
+    // what is being joined: the children, or the spill files of one
+    // partition once the left child did not fit in memory
+    private transient BatchIterator left, right;
+    private transient SpillFile[] leftParts, rightParts;
+    private transient int part;
+
+    private transient ColumnBatch build;
+    // first row of every bucket and next row in the same bucket, or -1
+    private transient int[] head;
+    private transient int[] next;
+    private transient ColumnBatch pending;
+    private transient int pendingPos;
+    private transient boolean leftDone;
+    private transient boolean chunkLoaded;
+
+    private transient ColumnBatch probe;
+    private transient int probePos;
+    private transient int probeRow;
+    private transient int chain;
+    private transient int[] matchBuild;
+    private transient int[] matchProbe;
+    private transient ColumnBatch out;
+
+    /**
+     * @param p The predicate to use to join the children, must be EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BatchHashJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("hash join needs an equality predicate, not " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.intKey = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** Set the number of left rows held in memory at a time. */
+    public void setMemoryBudget(int rows) {
+        this.memoryBudget = Math.max(1, rows);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build = new ColumnBatch(child1.getTupleDesc(), memoryBudget);
+        head = new int[Integer.highestOneBit(memoryBudget) * 4];
+        next = new int[memoryBudget];
+        matchBuild = new int[ColumnBatch.DEFAULT_CAPACITY];
+        matchProbe = new int[ColumnBatch.DEFAULT_CAPACITY];
+        out = new ColumnBatch(comboTD, ColumnBatch.DEFAULT_CAPACITY);
+        start();
+    }
+
+    private void start() {
+        closePartition();
+        deleteSpills();
+        left = child1;
+        right = child2;
+        reset();
+    }
+
+    private void reset() {
+        pending = null;
+        pendingPos = 0;
+        leftDone = false;
+        chunkLoaded = false;
+        probe = null;
+        chain = -1;
+    }
+
+    /**
+     * Load the next rows of the left child and hash them.
+     *
+     * @return false if the left child has no more rows
+     */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        build.clear();
+        while (!build.isFull()) {
+            if (pending == null || pendingPos == pending.count()) {
+                pending = leftDone ? null : left.nextBatch();
+                pendingPos = 0;
+                if (pending == null) {
+                    leftDone = true;
+                    break;
+                }
+            }
+            int base = build.size();
+            int n = Math.min(build.capacity() - base, pending.count() - pendingPos);
+            for (int c = 0; c < child1.getTupleDesc().numFields(); c++) {
+                if (isInt(child1.getTupleDesc(), c)) {
+                    int[] src = pending.ints(c), dst = build.ints(c);
+                    for (int k = 0; k < n; k++) {
+                        dst[base + k] = src[pending.row(pendingPos + k)];
+                    }
+                } else {
+                    String[] src = pending.strings(c), dst = build.strings(c);
+                    for (int k = 0; k < n; k++) {
+                        dst[base + k] = src[pending.row(pendingPos + k)];
+                    }
+                }
+            }
+            pendingPos += n;
+            build.setSize(base + n);
+        }
+        if (build.size() == 0) {
+            return false;
+        }
+        if (build.isFull() && leftParts == null && hasMoreLeft()) {
+            partition();
+            return nextPartition();
+        }
+        Arrays.fill(head, -1);
+        int mask = head.length - 1;
+        for (int r = 0; r < build.size(); r++) {
+            int b = buildHash(r) & mask;
+            next[r] = head[b];
+            head[b] = r;
+        }
+        chunkLoaded = true;
+        return true;
+    }
+
+    private boolean hasMoreLeft() throws DbException, TransactionAbortedException {
+        if (pending != null && pendingPos < pending.count()) {
+            return true;
+        }
+        pending = left.nextBatch();
+        pendingPos = 0;
+        if (pending == null) {
+            leftDone = true;
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isInt(TupleDesc td, int field) {
+        return td.getFieldType(field) == Type.INT_TYPE;
+    }
+
+    private int hash(ColumnBatch batch, int field, int r) {
+        return intKey ? BatchAggregate.hash(batch.ints(field)[r])
+                : BatchAggregate.hash(batch.strings(field)[r].hashCode());
+    }
+
+    private int buildHash(int r) {
+        return hash(build, pred.getField1(), r);
+    }
+
+    private int probeHash(int r) {
+        return hash(probe, pred.getField2(), r);
+    }
+
+    private static SpillFile[] newPartitions(TupleDesc td) throws DbException {
+        SpillFile[] parts = new SpillFile[HashEquiJoin.PARTITIONS];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new SpillFile(td);
+            }
+        } catch (DbException e) {
+            deleteAll(parts);
+            throw e;
+        }
+        return parts;
+    }
+
+    private static void deleteAll(SpillFile[] parts) {
+        if (parts != null) {
+            for (SpillFile part : parts) {
+                if (part != null) {
+                    part.delete();
+                }
+            }
+        }
+    }
+
+    /** Write the selected rows of batch to the partitions of their keys. */
+    private void spill(ColumnBatch batch, int from, int field, SpillFile[] parts) throws DbException {
+        // the top bits of the hash, the buckets use the bottom ones
+        int shift = Integer.numberOfLeadingZeros(HashEquiJoin.PARTITIONS - 1);
+        for (int k = from; k < batch.count(); k++) {
+            int r = batch.row(k);
+            parts[hash(batch, field, r) >>> shift].add(batch.getTuple(r));
+        }
+    }
+
+    /** Write the loaded rows and the rest of both children to spill files. */
+    private void partition() throws DbException, TransactionAbortedException {
+        leftParts = newPartitions(child1.getTupleDesc());
+        rightParts = newPartitions(child2.getTupleDesc());
+        spill(build, 0, pred.getField1(), leftParts);
+        for (; pending != null; pending = child1.nextBatch()) {
+            spill(pending, pendingPos, pred.getField1(), leftParts);
+            pendingPos = 0;
+        }
+        for (ColumnBatch b = child2.nextBatch(); b != null; b = child2.nextBatch()) {
+            spill(b, 0, pred.getField2(), rightParts);
+        }
+        part = -1;
+    }
+
+    /**
+     * Start joining the next partition with rows on both sides and load
+     * its first chunk.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        closePartition();
+        while (++part < leftParts.length) {
+            if (leftParts[part].size() > 0 && rightParts[part].size() > 0) {
+                left = new SpillBatches(leftParts[part]);
+                right = new SpillBatches(rightParts[part]);
+                left.open();
+                right.open();
+                reset();
+                return loadChunk();
+            }
+        }
+        return false;
+    }
+
+    private void closePartition() {
+        if (left != null && left != child1) {
+            left.close();
+            right.close();
+        }
+        left = child1;
+        right = child2;
+    }
+
+    private void deleteSpills() {
+        deleteAll(leftParts);
+        deleteAll(rightParts);
+        leftParts = rightParts = null;
+    }
+
+    private boolean matches(int b, int r) {
+        return intKey ? build.ints(pred.getField1())[b] == probe.ints(pred.getField2())[r]
+                : build.strings(pred.getField1())[b].equals(probe.strings(pred.getField2())[r]);
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("BatchHashJoin not yet open");
+        }
+        int mask = head.length - 1;
+        while (true) {
+            if (!chunkLoaded && (leftDone || !loadChunk())
+                    && (leftParts == null || !nextPartition())) {
+                return null;
+            }
+            int m = 0;
+            while (m < matchBuild.length) {
+                if (chain >= 0) {
+                    int b = chain;
+                    chain = next[b];
+                    if (matches(b, probeRow)) {
+                        matchBuild[m] = b;
+                        matchProbe[m] = probeRow;
+                        m++;
+                    }
+                    continue;
+                }
+                if (probe == null || probePos == probe.count()) {
+                    if (m > 0) {
+                        // the matches refer to rows of this probe batch
+                        break;
+                    }
+                    probe = right.nextBatch();
+                    probePos = 0;
+                    if (probe == null) {
+                        // the right child is done with this chunk
+                        chunkLoaded = false;
+                        if (!leftDone) {
+                            right.rewind();
+                        }
+                        break;
+                    }
+                }
+                probeRow = probe.row(probePos++);
+                chain = head[probeHash(probeRow) & mask];
+            }
+            if (m > 0) {
+                return gather(m);
+            }
+        }
+    }
+
+    /** Copy the m matching pairs of rows to the output batch. */
+    private ColumnBatch gather(int m) {
+        out.clear();
+        TupleDesc td1 = child1.getTupleDesc();
+        TupleDesc td2 = child2.getTupleDesc();
+        int n1 = td1.numFields();
+        for (int c = 0; c < n1; c++) {
+            if (isInt(td1, c)) {
+                int[] src = build.ints(c), dst = out.ints(c);
+                for (int k = 0; k < m; k++) {
+                    dst[k] = src[matchBuild[k]];
+                }
+            } else {
+                String[] src = build.strings(c), dst = out.strings(c);
+                for (int k = 0; k < m; k++) {
+                    dst[k] = src[matchBuild[k]];
+                }
+            }
+        }
+        for (int c = 0; c < td2.numFields(); c++) {
+            if (isInt(td2, c)) {
+                int[] src = probe.ints(c), dst = out.ints(n1 + c);
+                for (int k = 0; k < m; k++) {
+                    dst[k] = src[matchProbe[k]];
+                }
+            } else {
+                String[] src = probe.strings(c), dst = out.strings(n1 + c);
+                for (int k = 0; k < m; k++) {
+                    dst[k] = src[matchProbe[k]];
+                }
+            }
+        }
+        out.setSize(m);
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void close() {
+        closePartition();
+        deleteSpills();
+        child2.close();
+        child1.close();
+        build = null;
+        pending = null;
+        probe = null;
+        out = null;
+    }
+
+    /** The rows of a spill file as batches. */
+    private static class SpillBatches implements BatchIterator {
+
+        private static final long serialVersionUID = 1L;
+        private final SpillFile file;
+        private final TupleDesc td;
+        private transient ColumnBatch batch;
+        private transient SpillFile.Reader reader;
+
+        SpillBatches(SpillFile file) {
+            this.file = file;
+            this.td = file.getTupleDesc();
+        }
+
+        public void open() throws DbException {
+            batch = new ColumnBatch(td, ColumnBatch.DEFAULT_CAPACITY);
+            reader = file.read();
+        }
+
+        public ColumnBatch nextBatch() throws DbException {
+            batch.clear();
+            Tuple t;
+            while (!batch.isFull() && (t = reader.next()) != null) {
+                batch.add(t);
+            }
+            return batch.size() == 0 ? null : batch;
+        }
+
+        public void rewind() throws DbException {
+            reader.close();
+            reader = file.read();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+}
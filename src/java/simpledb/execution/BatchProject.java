@@ -0,0 +1,58 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch version of {@link Project}.  A projected batch
+ * shares the child's column arrays, so nothing is copied.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchIterator child;
+    private final TupleDesc td;
+    private final int[] fields;
+
+    /**
+     * @param fieldList The ids of the fields child's tupleDesc to project out
+     * @param types the types of the fields in the final projection
+     * @param child The child operator
+     */
+    public BatchProject(List<Integer> fieldList, Type[] types, BatchIterator child) {
+        this.child = child;
+        this.fields = new int[fieldList.size()];
+        String[] fieldAr = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fieldList.get(i);
+            fieldAr[i] = child.getTupleDesc().getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, fieldAr);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch batch = child.nextBatch();
+        return batch == null ? null : batch.project(fields, td);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferRing;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BatchSeqScan is the batch version of {@link SeqScan} for heap files.  It
+ * decodes the tuples of each page straight into the columns of a batch,
+ * reading pages through the buffer pool the same way SeqScan does.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableid;
+    private final TupleDesc td;
+    private transient ColumnBatch batch;
+    private transient BufferRing ring;
+    private transient int numPages;
+    private transient int curPage;
+    private transient HeapPage page;
+    private transient int slot;
+    private transient int prefetchedUpTo;
+
+    /**
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the heap file to scan
+     * @param tableAlias the alias of the table, the field names are
+     *   prefixed with it like in SeqScan
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+            throw new IllegalArgumentException("table " + tableid + " is not a heap file");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.td = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableid) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid));
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        ring = Database.getBufferPool().newBufferRing(numPages);
+        batch = new ColumnBatch(td, ColumnBatch.DEFAULT_CAPACITY);
+        curPage = -1;
+        page = null;
+        prefetchedUpTo = 0;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("BatchSeqScan not yet open");
+        }
+        batch.clear();
+        while (!batch.isFull()) {
+            if (page == null) {
+                if (curPage + 1 >= numPages) {
+                    break;
+                }
+                page = readPage(++curPage);
+                slot = 0;
+            }
+            slot = page.readColumns(batch, slot);
+            if (!batch.isFull()) {
+                page = null;
+            }
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    private HeapPage readPage(int pgNo) throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        // every page after the first is read sequentially, keep the next
+        // few coming in the background
+        if (pgNo > 0) {
+            int last = Math.min(pgNo + bp.getPrefetchDepth(), numPages - 1);
+            for (int i = Math.max(prefetchedUpTo, pgNo) + 1; i <= last; i++) {
+                bp.prefetchPage(new HeapPageId(tableid, i));
+                prefetchedUpTo = i;
+            }
+        }
+        return (HeapPage) bp.getPage(tid, new HeapPageId(tableid, pgNo), Permissions.READ_ONLY, ring);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        batch = null;
+        ring = null;
+        page = null;
+    }
+}
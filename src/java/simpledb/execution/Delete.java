@@ -83,7 +83,8 @@ public class Delete extends Operator {
             Tuple tuple = this.child.next();
             try{
                 Database.getBufferPool().deleteTuple(this.tid, tuple);
-            }catch (Exception e){
+            }catch (IOException e){
+                throw new DbException("delete failed: " + e.getMessage());
             }
             cnt++;
         }
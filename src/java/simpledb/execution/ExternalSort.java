@@ -0,0 +1,202 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * ExternalSort returns the tuples of its child in ascending order of one
+ * field.  A child of up to {@link #MEMORY_TUPLES} tuples is sorted in
+ * memory.  A larger child is cut into sorted runs of that many tuples,
+ * which are written to spill files and merged, on open, into a single
+ * sorted spill file; those tuples have no RecordId.  The child is read
+ * once, on open; rewind only reads the sorted file again from the start.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    /** Default number of tuples sorted in memory at a time. */
+    public final static int MEMORY_TUPLES = 20000;
+
+    private OpIterator child;
+    private final int field;
+    private final TupleComparator comparator;
+    private int memoryBudget = MEMORY_TUPLES;
+
+    private final List<Tuple> buffer = new ArrayList<>();
+    private final List<SpillFile> runs = new ArrayList<>();
+    transient private Iterator<Tuple> it = null;
+    transient private SpillFile.Reader reader = null;
+
+    /** The next tuple of a run being merged. */
+    private static class Run {
+        final SpillFile.Reader reader;
+        Tuple head;
+
+        Run(SpillFile.Reader reader, Tuple head) {
+            this.reader = reader;
+            this.head = head;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the tuples to sort
+     * @param field
+     *            the field to sort them on, ascending
+     */
+    public ExternalSort(OpIterator child, int field) {
+        this.child = child;
+        this.field = field;
+        this.comparator = new TupleComparator(field, true);
+    }
+
+    /** Sort at most tuples tuples in memory at a time. */
+    public void setMemoryBudget(int tuples) {
+        this.memoryBudget = Math.max(1, tuples);
+    }
+
+    /** @return the field the tuples are sorted on */
+    public int getSortField() {
+        return field;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    private void writeRun() throws DbException {
+        buffer.sort(comparator);
+        SpillFile run = new SpillFile(child.getTupleDesc());
+        runs.add(run);
+        for (Tuple t : buffer) {
+            run.add(t);
+        }
+        buffer.clear();
+    }
+
+    private void sort() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            buffer.add(child.next());
+            if (buffer.size() >= memoryBudget) {
+                writeRun();
+            }
+        }
+        if (runs.isEmpty()) {
+            buffer.sort(comparator);
+        } else if (!buffer.isEmpty()) {
+            writeRun();
+        }
+        if (runs.size() > 1) {
+            merge();
+        }
+    }
+
+    /** Merge the runs into a single run, so that rewind reads one file. */
+    private void merge() throws DbException {
+        PriorityQueue<Run> heads = new PriorityQueue<>(runs.size(),
+                (a, b) -> comparator.compare(a.head, b.head));
+        SpillFile merged = new SpillFile(child.getTupleDesc());
+        try {
+            for (SpillFile run : runs) {
+                SpillFile.Reader r = run.read();
+                Tuple t = r.next();
+                if (t == null) {
+                    r.close();
+                } else {
+                    heads.add(new Run(r, t));
+                }
+            }
+            Run r;
+            while ((r = heads.poll()) != null) {
+                merged.add(r.head);
+                r.head = r.reader.next();
+                if (r.head == null) {
+                    r.reader.close();
+                } else {
+                    heads.add(r);
+                }
+            }
+        } finally {
+            for (Run r : heads) {
+                r.reader.close();
+            }
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+            runs.clear();
+            runs.add(merged);
+        }
+    }
+
+    private void start() throws DbException {
+        if (runs.isEmpty()) {
+            it = buffer.iterator();
+        } else {
+            reader = runs.get(0).read();
+        }
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        try {
+            sort();
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            deleteRuns();
+            throw e;
+        }
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        closeReader();
+        deleteRuns();
+        buffer.clear();
+        it = null;
+    }
+
+    private void deleteRuns() {
+        for (SpillFile run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeReader();
+        start();
+    }
+
+    protected Tuple fetchNext() throws DbException {
+        if (reader == null) {
+            return it.hasNext() ? it.next() : null;
+        }
+        return reader.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,6 +10,14 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join.  If the left child fits in memory
+ * it is hashed and probed with one pass over the right child.  Otherwise
+ * both children are split into {@link #PARTITIONS} partitions by the hash
+ * of the join field; the first partition is joined in memory while the
+ * right child is read, the others are written to spill files and joined
+ * one by one afterwards.  Every input is read once and the spilled part
+ * written and read once more.
  */
 public class HashEquiJoin extends Operator {
 
@@ -56,27 +65,232 @@ public class HashEquiJoin extends Operator {
     }
     
     final Map<Object, List<Tuple>> map = new HashMap<>();
+    /** Default number of left tuples held in memory at a time. */
     public final static int MAP_SIZE = 20000;
+    /**
+     * Number of partitions both children are split into once the left
+     * child does not fit in memory.
+     */
+    public final static int PARTITIONS = 32;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    private int memoryBudget = MAP_SIZE;
+
+    // the join is in memory until the left child overflows memoryBudget;
+    // then the tuples of every partition but the first go to spill files,
+    // and the first partition too if it overflows memoryBudget by itself
+    transient private SpillFile[] buildSpill, probeSpill;
+    transient private boolean firstInMemory;
+    // next partition to join from disk, and the readers of the current one
+    transient private int nextPartition, curPartition;
+    transient private SpillFile.Reader buildReader, probeReader;
+
+    /** Set the number of left tuples held in memory at a time. */
+    public void setMemoryBudget(int tuples) {
+        this.memoryBudget = tuples;
+    }
+
+    int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    private static int partition(Field key) {
+        // mixed, so the partitions do not line up with the HashMap buckets
+        int h = key.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), PARTITIONS);
+    }
+
+    private void addToMap(Tuple t) {
+        map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+    }
+
+    /**
+     * Read the whole left child, into map as long as it fits and into
+     * partitions on disk from the point where it does not.
+     */
+    private void build() throws DbException, TransactionAbortedException {
         map.clear();
+        deleteSpills();
+        int inMemory = 0;
         while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            Tuple t = child1.next();
+            if (buildSpill == null) {
+                addToMap(t);
+                if (++inMemory > memoryBudget) {
+                    inMemory = spill();
+                }
+                continue;
+            }
+            int p = partition(t.getField(pred.getField1()));
+            if (p == 0 && firstInMemory) {
+                addToMap(t);
+                if (++inMemory > memoryBudget) {
+                    spillFirst();
+                }
+            } else {
+                buildSpill[p].add(t);
+            }
+        }
+    }
+
+    /**
+     * Start partitioning: move the tuples in map that are not in the first
+     * partition to disk.
+     *
+     * @return the number of tuples left in map
+     */
+    private int spill() throws DbException {
+        buildSpill = new SpillFile[PARTITIONS];
+        probeSpill = new SpillFile[PARTITIONS];
+        for (int p = 1; p < PARTITIONS; p++) {
+            buildSpill[p] = new SpillFile(child1.getTupleDesc());
+            probeSpill[p] = new SpillFile(child2.getTupleDesc());
+        }
+        firstInMemory = true;
+        nextPartition = 1;
+        int left = 0;
+        Iterator<Map.Entry<Object, List<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, List<Tuple>> e = it.next();
+            int p = partition((Field) e.getKey());
+            if (p == 0) {
+                left += e.getValue().size();
+                continue;
+            }
+            for (Tuple t : e.getValue()) {
+                buildSpill[p].add(t);
+            }
+            it.remove();
+        }
+        return left;
+    }
+
+    /** The first partition does not fit in memory either, spill it too. */
+    private void spillFirst() throws DbException {
+        buildSpill[0] = new SpillFile(child1.getTupleDesc());
+        probeSpill[0] = new SpillFile(child2.getTupleDesc());
+        for (List<Tuple> l : map.values()) {
+            for (Tuple t : l) {
+                buildSpill[0].add(t);
+            }
+        }
+        map.clear();
+        firstInMemory = false;
+        nextPartition = 0;
+    }
+
+    private void deleteSpills() {
+        closeReaders();
+        if (buildSpill != null) {
+            for (int p = 0; p < PARTITIONS; p++) {
+                // a failed spill may have created only some of them
+                if (buildSpill[p] != null) {
+                    buildSpill[p].delete();
+                }
+                if (probeSpill[p] != null) {
+                    probeSpill[p].delete();
+                }
+            }
+        }
+        buildSpill = null;
+        probeSpill = null;
+    }
+
+    private void closeReaders() {
+        if (buildReader != null) {
+            buildReader.close();
+            buildReader = null;
+        }
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+    }
+
+    /**
+     * Load the next memoryBudget tuples of the current partition's left side
+     * into map; a partition larger than that is joined in several rounds
+     * over its right side.
+     *
+     * @return false if the partition's left side is used up
+     */
+    private boolean loadPartitionChunk() throws DbException {
+        map.clear();
+        int cnt = 0;
+        Tuple t;
+        while (cnt < memoryBudget && (t = buildReader.next()) != null) {
+            addToMap(t);
+            cnt++;
         }
         return cnt > 0;
+    }
+
+    /**
+     * Move on to the next partition on disk with tuples on both sides.
+     *
+     * @return false if all partitions are joined
+     */
+    private boolean startNextPartition() throws DbException {
+        closeReaders();
+        map.clear();
+        while (nextPartition < PARTITIONS) {
+            curPartition = nextPartition++;
+            if (buildSpill[curPartition] == null || buildSpill[curPartition].size() == 0
+                    || probeSpill[curPartition].size() == 0) {
+                continue;
+            }
+            buildReader = buildSpill[curPartition].read();
+            loadPartitionChunk();
+            probeReader = probeSpill[curPartition].read();
+            return true;
+        }
+        return false;
+    }
 
+    /**
+     * @return the next right tuple to look up in map, or null when the
+     *   join is done.  Right tuples of partitions on disk are set aside
+     *   while the right child is read.
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (probeReader != null) {
+                Tuple t = probeReader.next();
+                if (t != null) {
+                    return t;
+                }
+                probeReader.close();
+                probeReader = null;
+                if (loadPartitionChunk()) {
+                    probeReader = probeSpill[curPartition].read();
+                } else if (!startNextPartition()) {
+                    return null;
+                }
+            } else if (child2.hasNext()) {
+                Tuple t = child2.next();
+                if (buildSpill != null) {
+                    int p = partition(t.getField(pred.getField2()));
+                    if (p != 0 || !firstInMemory) {
+                        probeSpill[p].add(t);
+                        continue;
+                    }
+                }
+                return t;
+            } else if (buildSpill == null || !startNextPartition()) {
+                return null;
+            }
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        try {
+            build();
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            deleteSpills();
+            throw e;
+        }
         super.open();
     }
 
@@ -88,11 +302,19 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        deleteSpills();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        listIt = null;
+        if (buildSpill == null) {
+            // map still holds the whole left child
+            child2.rewind();
+            return;
+        }
         child1.rewind();
         child2.rewind();
+        build();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -132,32 +354,19 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
+        while (true) {
             // if match, create a combined tuple and fill it with the values
             // from both tuples
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            t2 = nextProbe();
+            if (t2 == null) {
+                return null;
+            }
             List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+            listIt = l == null ? null : l.iterator();
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
-        return null;
     }
 
     @Override
@@ -0,0 +1,213 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeKeyCursor;
+import simpledb.storage.DbFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin is an equality join whose right child is a scan of a
+ * B+ tree keyed on the join field, possibly under filters, see
+ * {@link #canProbe}.  The right child is never read: for every left tuple
+ * the join looks its key up in the B+ tree and applies the filters to the
+ * tuples found.  Left tuples are taken in blocks of up to
+ * {@link Join#BLOCK_SIZE} and looked up in ascending key order, so that a
+ * lookup mostly starts from the leaf the previous one ended on instead of
+ * descending from the root.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private final TupleComparator byKey;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    private int memoryBudget = Join.BLOCK_SIZE;
+
+    // what child2 stands for: the scanned B+ tree and the filters over it
+    private TransactionId tid;
+    private int tableId;
+    private final List<Predicate> filters = new ArrayList<>();
+
+    transient private BTreeKeyCursor cursor = null;
+    // the current block of left tuples sorted by key, the left tuple
+    // being joined and the right tuples with its key
+    private final List<Tuple> block = new ArrayList<>();
+    private int blockIdx = 0;
+    transient private Tuple t1 = null;
+    transient private List<Tuple> matches = null;
+    private int matchIdx = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The right(inner) relation to join; must satisfy
+     *            {@link #canProbe}
+     * @throws IllegalArgumentException if the children cannot be joined
+     *             through the index
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("index join needs an equality predicate, not " + p.getOperator());
+        }
+        this.pred = p;
+        this.byKey = new TupleComparator(p.getField1(), true);
+        setChildren(new OpIterator[]{child1, child2});
+    }
+
+    /** @return the SeqScan under the filters of op, or null if op is something else */
+    private static SeqScan scanBelowFilters(OpIterator op, List<Predicate> filters) {
+        while (op instanceof Filter) {
+            filters.add(((Filter) op).getPredicate());
+            op = ((Filter) op).getChildren()[0];
+        }
+        return op instanceof SeqScan ? (SeqScan) op : null;
+    }
+
+    /**
+     * @return whether op can be the right child of an IndexNestedLoopJoin
+     *   on field: a SeqScan, possibly under filters, of a B+ tree keyed on
+     *   the field
+     */
+    public static boolean canProbe(OpIterator op, int field) {
+        SeqScan scan = scanBelowFilters(op, new ArrayList<>());
+        if (scan == null) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    /** Join at most tuples left tuples per block. */
+    public void setMemoryBudget(int tuples) {
+        this.memoryBudget = Math.max(1, tuples);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    private void reset() {
+        block.clear();
+        blockIdx = 0;
+        t1 = null;
+        matches = null;
+        matchIdx = 0;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        cursor = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableId)).keyCursor(tid);
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        cursor = null;
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        reset();
+    }
+
+    /** Read the next block of left tuples; false once the left child is done. */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        blockIdx = 0;
+        while (block.size() < memoryBudget && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        block.sort(byKey);
+        return !block.isEmpty();
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (Predicate f : filters) {
+            if (!f.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  As in {@link Join}, the result is the concatenation of a
+     * left and a right tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (matches != null && matchIdx < matches.size()) {
+                Tuple t2 = matches.get(matchIdx++);
+                if (passesFilters(t2)) {
+                    int td1n = t1.getTupleDesc().numFields();
+                    Tuple t = new Tuple(comboTD);
+                    for (int i = 0; i < td1n; i++)
+                        t.setField(i, t1.getField(i));
+                    for (int i = 0; i < comboTD.numFields() - td1n; i++)
+                        t.setField(td1n + i, t2.getField(i));
+                    return t;
+                }
+            }
+            if (blockIdx == block.size() && !loadBlock()) {
+                return null;
+            }
+            t1 = block.get(blockIdx++);
+            matches = cursor.find(t1.getField(pred.getField1()));
+            matchIdx = 0;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        List<Predicate> newFilters = new ArrayList<>();
+        SeqScan scan = scanBelowFilters(children[1], newFilters);
+        if (!canProbe(children[1], pred.getField2())) {
+            throw new IllegalArgumentException("right child is not a scan of a B+ tree keyed on field "
+                    + pred.getField2());
+        }
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.tid = scan.getTransactionId();
+        this.tableId = scan.getTableId();
+        this.filters.clear();
+        this.filters.addAll(newFilters);
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -12,6 +12,8 @@ import simpledb.storage.TupleIterator;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.io.IOException;
+
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
  * constructor
@@ -94,7 +96,8 @@ public class Insert extends Operator {
             try{
                 Database.getBufferPool().insertTuple(this.tid, this.tableId, tuple);
                 cnt++;
-            }catch (Exception e){
+            }catch (IOException e){
+                throw new DbException("insert failed: " + e.getMessage());
             }
 
         }
@@ -11,6 +11,11 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Join is a block nested-loop join: it buffers a block of up to
+ * {@link #BLOCK_SIZE} left tuples and compares every right tuple with the
+ * whole block, so the right child is read once per block instead of once
+ * per left tuple.
  */
 public class Join extends Operator {
 
@@ -18,7 +23,18 @@ public class Join extends Operator {
     private JoinPredicate p;
     private OpIterator child1;
     private OpIterator child2;
-    private Tuple t1;
+    private TupleDesc comboTD;
+    /** Default number of left tuples buffered per pass over the right child. */
+    public final static int BLOCK_SIZE = 20000;
+
+    private int memoryBudget = BLOCK_SIZE;
+    // the current block of left tuples, the right tuple being compared
+    // with it and the next position in the block to compare it with
+    private final List<Tuple> block = new ArrayList<>();
+    transient private Tuple t2;
+    private int blockIdx;
+    // whether the right child has been read since open or rewind
+    private boolean started;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -36,6 +52,12 @@ public class Join extends Operator {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** Buffer at most tuples left tuples per pass over the right child. */
+    public void setMemoryBudget(int tuples) {
+        this.memoryBudget = Math.max(1, tuples);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -69,14 +91,14 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        return this.comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
         super.open();
-        this.t1 = null;
+        reset();
         this.child1.open();
         this.child2.open();
     }
@@ -86,15 +108,32 @@ public class Join extends Operator {
         this.child1.close();
         this.child2.close();
         super.close();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.t1 = null;
+        reset();
         this.child1.rewind();
         this.child2.rewind();
     }
 
+    private void reset() {
+        this.block.clear();
+        this.t2 = null;
+        this.blockIdx = 0;
+        this.started = false;
+    }
+
+    /** Read the next block of left tuples; false once the left child is done. */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        this.block.clear();
+        while (this.block.size() < this.memoryBudget && this.child1.hasNext()) {
+            this.block.add(this.child1.next());
+        }
+        return !this.block.isEmpty();
+    }
+
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -115,31 +154,38 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if(this.t1 == null){
-            this.t1 = this.child1.next();
-        }
-        Tuple t2;
-        while (true){
-            while (this.child2.hasNext()){
-                t2 = this.child2.next();
-                if(this.p.filter(this.t1, t2)){
-                    Tuple res = new Tuple(getTupleDesc());
-                    for(int i = 0; i < this.t1.getTupleDesc().numFields(); i++){
-                        res.setField(i, this.t1.getField(i));
-                    }
-                    for(int i = 0; i < t2.getTupleDesc().numFields(); i++){
-                        res.setField(i + this.t1.getTupleDesc().numFields(), t2.getField(i));
+        while (true) {
+            if (this.t2 != null) {
+                while (this.blockIdx < this.block.size()) {
+                    Tuple t1 = this.block.get(this.blockIdx++);
+                    if (this.p.filter(t1, this.t2)) {
+                        Tuple res = new Tuple(this.comboTD);
+                        int td1n = t1.getTupleDesc().numFields();
+                        for (int i = 0; i < td1n; i++) {
+                            res.setField(i, t1.getField(i));
+                        }
+                        for (int i = 0; i < this.t2.getTupleDesc().numFields(); i++) {
+                            res.setField(td1n + i, this.t2.getField(i));
+                        }
+                        return res;
                     }
-                    return res;
                 }
             }
-            if(!this.child1.hasNext()){
-                break;
+            if (!this.block.isEmpty() && this.child2.hasNext()) {
+                this.t2 = this.child2.next();
+                this.blockIdx = 0;
+                continue;
+            }
+            // the right child has been compared with the whole block
+            this.t2 = null;
+            if (!loadBlock()) {
+                return null;
+            }
+            if (this.started) {
+                this.child2.rewind();
             }
-            this.t1 = this.child1.next();
-            this.child2.rewind();
+            this.started = true;
         }
-        return null;
     }
 
     @Override
@@ -153,6 +199,7 @@ public class Join extends Operator {
         // some code goes here
         this.child1 = children[0];
         this.child2 = children[1];
+        this.comboTD = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
     }
 
 }
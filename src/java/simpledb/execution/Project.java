@@ -48,6 +48,11 @@ public class Project extends Operator {
         return td;
     }
 
+    /** @return the ids of the child's fields this operator projects out */
+    List<Integer> getFieldIds() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
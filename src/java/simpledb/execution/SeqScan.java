@@ -86,6 +86,16 @@ public class SeqScan implements OpIterator {
         this.tableAlias = tableAlias;
     }
 
+    /** @return the id of the table this operator scans */
+    int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    TransactionId getTransactionId() {
+        return tid;
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
@@ -0,0 +1,293 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two children that are read in ascending order of
+ * their join fields.  A child that is not already in that order, see
+ * {@link #isSorted}, goes through an {@link ExternalSort} first.
+ * <p>
+ * An equality join merges the two children, holding the right tuples of
+ * one join value in memory at a time.  For the other comparisons the
+ * tuples that match an outer tuple are a prefix of the inner child: for
+ * &gt; and &gt;= the outer child is the left one and the matches are the
+ * right tuples with a smaller value; for &lt; and &lt;= the roles are
+ * swapped.  The inner child is rewound for every outer tuple but read only
+ * up to the first tuple that does not match, so the work is proportional
+ * to the size of the result rather than to the product of the children.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private boolean sorted1, sorted2;
+    private int memoryBudget = ExternalSort.MEMORY_TUPLES;
+
+    // the children in join field order, that is either the children
+    // themselves or ExternalSorts over them
+    transient private OpIterator left = null, right = null;
+    // equality: the current left tuple, the right tuples with its join
+    // value and the first right tuple after them
+    transient private Tuple outer = null;
+    transient private Tuple peek = null;
+    private final List<Tuple> group = new ArrayList<>();
+    private int groupIdx = 0;
+    // other comparisons: outer is read from outerChild, and innerChild is
+    // scanned for its matches while inMatches is set
+    transient private OpIterator outerChild = null, innerChild = null;
+    private boolean inMatches = false;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; one of EQUALS,
+     *            LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN and
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @throws IllegalArgumentException if the predicate is not supported
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("sort-merge join cannot join on " + p.getOperator());
+        }
+        this.pred = p;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        setChildren(new OpIterator[]{child1, child2});
+    }
+
+    /** @return whether a SortMergeJoin can join on op */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return whether op returns its tuples in ascending order of field,
+     *   as far as can be told from the plan: a scan or index scan of a B+
+     *   tree keyed on the field, a sort on it, or filters, projections and
+     *   equality merge joins over those
+     */
+    public static boolean isSorted(OpIterator op, int field) {
+        if (op instanceof SeqScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) op).getTableId());
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        } else if (op instanceof BTreeScan) {
+            // a range of the keys, in key order
+            DbFile f = Database.getCatalog().getDatabaseFile(((BTreeScan) op).getTableId());
+            return ((BTreeFile) f).keyField() == field;
+        } else if (op instanceof ExternalSort) {
+            return ((ExternalSort) op).getSortField() == field;
+        } else if (op instanceof OrderBy) {
+            OrderBy o = (OrderBy) op;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (op instanceof Filter) {
+            return isSorted(((Filter) op).getChildren()[0], field);
+        } else if (op instanceof Project) {
+            Project p = (Project) op;
+            return isSorted(p.getChildren()[0], p.getFieldIds().get(field));
+        } else if (op instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) op;
+            JoinPredicate jp = j.getJoinPredicate();
+            int leftFields = j.getChildren()[0].getTupleDesc().numFields();
+            return jp.getOperator() == Predicate.Op.EQUALS
+                    && (field == jp.getField1() || field == leftFields + jp.getField2());
+        }
+        return false;
+    }
+
+    /** Sort at most tuples tuples of a child in memory at a time. */
+    public void setMemoryBudget(int tuples) {
+        this.memoryBudget = tuples;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    private OpIterator inOrder(OpIterator child, boolean sorted, int field) {
+        if (sorted) {
+            return child;
+        }
+        ExternalSort sort = new ExternalSort(child, field);
+        sort.setMemoryBudget(memoryBudget);
+        return sort;
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        outer = null;
+        group.clear();
+        groupIdx = 0;
+        inMatches = false;
+        switch (pred.getOperator()) {
+            case EQUALS:
+                peek = right.hasNext() ? right.next() : null;
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                outerChild = left;
+                innerChild = right;
+                break;
+            default:
+                outerChild = right;
+                innerChild = left;
+                break;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = inOrder(child1, sorted1, pred.getField1());
+        right = inOrder(child2, sorted2, pred.getField2());
+        left.open();
+        right.open();
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (right != null) {
+            right.close();
+        }
+        if (left != null) {
+            left.close();
+        }
+        left = right = outerChild = innerChild = null;
+        outer = peek = null;
+        group.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        start();
+    }
+
+    private Tuple combine(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    private Tuple mergeEquals() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (outer != null && groupIdx < group.size()) {
+                return combine(outer, group.get(groupIdx++));
+            }
+            if (!left.hasNext()) {
+                return null;
+            }
+            outer = left.next();
+            groupIdx = 0;
+            Field key = outer.getField(pred.getField1());
+            if (!group.isEmpty() && key.compare(Predicate.Op.EQUALS, group.get(0).getField(pred.getField2()))) {
+                // same value as the previous left tuple
+                continue;
+            }
+            group.clear();
+            while (peek != null && peek.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key)) {
+                peek = right.hasNext() ? right.next() : null;
+            }
+            if (peek == null) {
+                // every later left tuple is larger than the right child
+                return null;
+            }
+            while (peek != null && peek.getField(pred.getField2()).compare(Predicate.Op.EQUALS, key)) {
+                group.add(peek);
+                peek = right.hasNext() ? right.next() : null;
+            }
+        }
+    }
+
+    private Tuple mergeRange() throws DbException, TransactionAbortedException {
+        boolean outerIsLeft = outerChild == left;
+        while (true) {
+            if (inMatches) {
+                if (innerChild.hasNext()) {
+                    Tuple inner = innerChild.next();
+                    Tuple t1 = outerIsLeft ? outer : inner;
+                    Tuple t2 = outerIsLeft ? inner : outer;
+                    if (pred.filter(t1, t2)) {
+                        return combine(t1, t2);
+                    }
+                }
+                // past the end of the matching prefix
+                inMatches = false;
+            }
+            if (!outerChild.hasNext()) {
+                return null;
+            }
+            outer = outerChild.next();
+            innerChild.rewind();
+            inMatches = true;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  As in {@link Join}, the result is the concatenation of a
+     * left and a right tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            return mergeEquals();
+        }
+        return mergeRange();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.sorted1 = isSorted(child1, pred.getField1());
+        this.sorted2 = isSorted(child2, pred.getField2());
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes once and
+ * then reads back, as often as it likes, in the order they were written.
+ * Operators use it to set aside input that does not fit in memory.
+ * The tuples read back have no RecordId.  The file is removed by
+ * {@link #delete}, which its operator calls on close, and also when an
+ * open fails.
+ */
+class SpillFile {
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("spill", ".tmp");
+        } catch (IOException e) {
+            throw new DbException("cannot create spill file: " + e.getMessage());
+        }
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            file.delete();
+            throw new DbException("cannot create spill file: " + e.getMessage());
+        }
+    }
+
+    TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written */
+    int size() {
+        return size;
+    }
+
+    void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /** A pass over the tuples of a SpillFile. */
+    class Reader implements Closeable {
+        private final DataInputStream in;
+        private int left = size;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        /** @return the next tuple, or null after the last one */
+        Tuple next() throws DbException {
+            if (left == 0) {
+                return null;
+            }
+            left--;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new DbException("cannot read spill file: " + e.getMessage());
+            }
+            return t;
+        }
+
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing was written through it
+            }
+        }
+    }
+
+    /** Start reading the tuples back; no more tuples may be added. */
+    Reader read() throws DbException {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            return new Reader();
+        } catch (IOException e) {
+            throw new DbException("cannot read spill file: " + e.getMessage());
+        }
+    }
+
+    /** Close and remove the file. */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file goes away anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * TupleAdapter returns the selected rows of a BatchIterator's batches one
+ * Tuple at a time, so a batch operator can feed any tuple operator or be
+ * run as the root of a query.  The tuples have no RecordId.
+ */
+public class TupleAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchIterator child;
+    private transient ColumnBatch batch;
+    private transient int pos;
+
+    public TupleAdapter(BatchIterator child) {
+        this.child = child;
+    }
+
+    public BatchIterator getBatchChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos == batch.count()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        // the child is not an OpIterator, so the optimizer sees a leaf
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vectorizer turns a plan of tuple operators into batch operators where
+ * a batch version exists: SeqScan over a heap file, Filter, Project,
+ * Aggregate and HashEquiJoin.  Any other operator keeps running on
+ * tuples, with its children converted below it and adapters around it.
+ */
+public class Vectorizer {
+
+    private Vectorizer() {
+    }
+
+    /**
+     * @return a plan that returns the same tuples as plan, running as much
+     *   of it as possible on batches; the tuples have no RecordId
+     */
+    public static OpIterator vectorize(OpIterator plan) {
+        BatchIterator batches = toBatches(plan);
+        if (batches instanceof BatchAdapter) {
+            // the root itself runs on tuples
+            return plan;
+        }
+        return new TupleAdapter(batches);
+    }
+
+    /** @return plan as a BatchIterator */
+    public static BatchIterator toBatches(OpIterator plan) {
+        if (plan instanceof TupleAdapter) {
+            return ((TupleAdapter) plan).getBatchChild();
+        }
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            if (Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile) {
+                return new BatchSeqScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias());
+            }
+            return new BatchAdapter(plan);
+        }
+        if (plan instanceof Filter) {
+            Filter filter = (Filter) plan;
+            return new BatchFilter(filter.getPredicate(), toBatches(filter.getChildren()[0]));
+        }
+        if (plan instanceof Project) {
+            Project project = (Project) plan;
+            List<Integer> fields = project.getFieldIds();
+            TupleDesc td = project.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = td.getFieldType(i);
+            }
+            return new BatchProject(fields, types, toBatches(project.getChildren()[0]));
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate agg = (Aggregate) plan;
+            OpIterator child = agg.getChildren()[0];
+            boolean intField = child.getTupleDesc().getFieldType(agg.aggregateField()) == Type.INT_TYPE;
+            Aggregator.Op aop = agg.aggregateOp();
+            if (intField ? aop != Aggregator.Op.SUM_COUNT && aop != Aggregator.Op.SC_AVG
+                    : aop == Aggregator.Op.COUNT) {
+                return new BatchAggregate(toBatches(child), agg.aggregateField(), agg.groupField(), aop);
+            }
+        } else if (plan instanceof HashEquiJoin) {
+            HashEquiJoin join = (HashEquiJoin) plan;
+            if (join.getJoinPredicate().getOperator() == Predicate.Op.EQUALS) {
+                OpIterator[] children = join.getChildren();
+                BatchHashJoin batchJoin = new BatchHashJoin(join.getJoinPredicate(),
+                        toBatches(children[0]), toBatches(children[1]));
+                batchJoin.setMemoryBudget(join.getMemoryBudget());
+                return batchJoin;
+            }
+        }
+        // keep the operator, but still run its subtrees on batches; the
+        // right child of an index join only names the index it probes
+        if (plan instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin join = (IndexNestedLoopJoin) plan;
+            OpIterator[] children = join.getChildren();
+            join.setChildren(new OpIterator[]{vectorize(children[0]), children[1]});
+        } else if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            if (children != null && children.length > 0) {
+                OpIterator[] converted = Arrays.copyOf(children, children.length);
+                for (int i = 0; i < children.length; i++) {
+                    converted[i] = vectorize(children[i]);
+                }
+                op.setChildren(converted);
+            }
+        }
+        return new BatchAdapter(plan);
+    }
+}
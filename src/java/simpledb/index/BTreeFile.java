@@ -32,6 +32,28 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final DbFileChannel channel;
+
+	// let the log rebuild B+ tree pages; leaf and internal pages take the
+	// key field of the file they belong to
+	static {
+		PageRegistry.register(PageRegistry.BTREE_ROOT_PTR,
+				(tableId, pgNo) -> new BTreePageId(tableId, pgNo, BTreePageId.ROOT_PTR),
+				(pid, data) -> new BTreeRootPtrPage((BTreePageId) pid, data));
+		PageRegistry.register(PageRegistry.BTREE_INTERNAL,
+				(tableId, pgNo) -> new BTreePageId(tableId, pgNo, BTreePageId.INTERNAL),
+				(pid, data) -> new BTreeInternalPage((BTreePageId) pid, data, keyField(pid)));
+		PageRegistry.register(PageRegistry.BTREE_LEAF,
+				(tableId, pgNo) -> new BTreePageId(tableId, pgNo, BTreePageId.LEAF),
+				(pid, data) -> new BTreeLeafPage((BTreePageId) pid, data, keyField(pid)));
+		PageRegistry.register(PageRegistry.BTREE_HEADER,
+				(tableId, pgNo) -> new BTreePageId(tableId, pgNo, BTreePageId.HEADER),
+				(pid, data) -> new BTreeHeaderPage((BTreePageId) pid, data));
+	}
+
+	private static int keyField(PageId pid) {
+		return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+	}
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +68,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new DbFileChannel(f);
 	}
 
 	/**
@@ -87,49 +110,26 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+		try {
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				byte[] pageBuf = channel.read(0, BTreeRootPtrPage.getPageSize());
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				return new BTreeRootPtrPage(id, pageBuf);
+			} else {
+				byte[] pageBuf = channel.read(pageOffset(id.getPageNumber()), BufferPool.getPageSize());
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				if (id.pgcateg() == BTreePageId.INTERNAL) {
+					return new BTreeInternalPage(id, pageBuf, keyField);
+				} else if (id.pgcateg() == BTreePageId.LEAF) {
+					return new BTreeLeafPage(id, pageBuf, keyField);
+				} else { // id.pgcateg() == BTreePageId.HEADER
+					return new BTreeHeaderPage(id, pageBuf);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -141,17 +141,55 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(0, data);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(pageOffset(page.getId().getPageNumber()), data);
 		}
 	}
+
+	/**
+	 * Write several pages to disk, coalescing pages with consecutive page
+	 * numbers into a single gathering write
+	 * 
+	 * @param pages - the pages to write
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		List<Page> sorted = new ArrayList<>();
+		for (Page page : pages) {
+			if (((BTreePageId) page.getId()).pgcateg() == BTreePageId.ROOT_PTR)
+				writePage(page);
+			else
+				sorted.add(page);
+		}
+		sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+		int start = 0;
+		for (int i = 1; i <= sorted.size(); i++) {
+			if (i < sorted.size() && sorted.get(i).getId().getPageNumber()
+					== sorted.get(i - 1).getId().getPageNumber() + 1)
+				continue;
+			byte[][] run = new byte[i - start][];
+			for (int j = start; j < i; j++)
+				run[j - start] = sorted.get(j).getPageData();
+			channel.writeGathered(pageOffset(sorted.get(start).getId().getPageNumber()), run);
+			start = i;
+		}
+	}
+
+	/**
+	 * Returns the file offset of the page with the given (1-based) number
+	 */
+	private static long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Close the channel to the file backing this BTreeFile
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -161,6 +199,16 @@ public class BTreeFile implements DbFile {
 		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
 
+	/**
+	 * Successor function for read-ahead along the leaf chain: the right sibling
+	 * of a leaf page, or null at the end of the chain or for any other page
+	 */
+	static PageId rightSiblingOf(Page page) {
+		if (page instanceof BTreeLeafPage)
+			return ((BTreeLeafPage) page).getRightSiblingId();
+		return null;
+	}
+
 	/**
 	 * Returns the index of the field that this B+ tree is keyed on
 	 */
@@ -187,8 +235,23 @@ public class BTreeFile implements DbFile {
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
                                        Field f)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-        return null;
+		if (pid.pgcateg() == BTreePageId.LEAF) {
+			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		}
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			// keys equal to f may also be in the left subtree
+			if (f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+				return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
+			}
+		}
+		if (e == null) {
+			throw new DbException("internal page " + pid + " has no entries");
+		}
+		return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
 	}
 	
 	/**
@@ -894,11 +957,7 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.append(BTreeInternalPage.createEmptyPageData());
 				emptyPageNo = numPages();
 			}
 		}
@@ -929,10 +988,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1041,6 +1097,16 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * Get a cursor that looks up the tuples with one key after another,
+	 * reusing the leaf reached by the previous lookup when keys ascend.
+	 * @param tid - the transaction id
+	 * @return a new cursor on this file
+	 */
+	public BTreeKeyCursor keyCursor(TransactionId tid) {
+		return new BTreeKeyCursor(this, tid);
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This method 
 	 * will acquire a read lock on the affected pages of the file, and may block until 
@@ -1062,6 +1128,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	// private frames for the leaf chain, null if the tree fits in the pool
+	BufferRing ring = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1085,6 +1153,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, null);
 		it = curp.iterator();
+		ring = Database.getBufferPool().newBufferRing(f.numPages());
 	}
 
 	/**
@@ -1105,7 +1174,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, ring);
+				// the scan is walking the leaf chain, read the next leaves ahead
+				Database.getBufferPool().prefetchChain(curp.getRightSiblingId(), BTreeFile::rightSiblingOf);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1132,6 +1203,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		ring = null;
 	}
 }
 
@@ -1144,6 +1216,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
 
+	// private frames for the leaf chain, null if the tree fits in the pool
+	BufferRing ring = null;
+
 	final TransactionId tid;
 	final BTreeFile f;
 	final IndexPredicate ipred;
@@ -1176,6 +1251,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			curp = f.findLeafPage(tid, root, null);
 		}
 		it = curp.iterator();
+		ring = Database.getBufferPool().newBufferRing(f.numPages());
 	}
 
 	/**
@@ -1214,7 +1290,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, ring);
+				Database.getBufferPool().prefetchChain(curp.getRightSiblingId(), BTreeFile::rightSiblingOf);
 				it = curp.iterator();
 			}
 		}
@@ -1236,5 +1313,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		ring = null;
 	}
 }
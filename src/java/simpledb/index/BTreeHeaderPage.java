@@ -23,6 +23,7 @@ import java.util.Arrays;
 public class BTreeHeaderPage implements Page {
 	private volatile boolean dirty = false;
 	private volatile TransactionId dirtier = null;
+	private volatile long lsn = -1;
 	
 	final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -260,7 +261,18 @@ public class BTreeHeaderPage implements Page {
 	 */
 	public void markDirty(boolean dirty, TransactionId tid) {
 		this.dirty = dirty;
-		if (dirty) this.dirtier = tid;
+		if (dirty) {
+			this.dirtier = tid;
+			this.lsn = -1;
+		}
+	}
+
+	public long getLsn() {
+		return lsn;
+	}
+
+	public void setLsn(long lsn) {
+		this.lsn = lsn;
 	}
 
 	/**
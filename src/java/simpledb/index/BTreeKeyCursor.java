@@ -0,0 +1,113 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * BTreeKeyCursor looks up the tuples of a BTreeFile with a given key, one
+ * key after another.  When the keys come in ascending order a lookup
+ * starts from the leaf the previous one ended on, or from its right
+ * sibling, whenever the key can be there, and only descends from the root
+ * otherwise.  A repeated key returns the previous tuples without reading
+ * anything.  Pages are locked READ_ONLY, like an index scan does.
+ */
+public class BTreeKeyCursor {
+
+	private final BTreeFile f;
+	private final TransactionId tid;
+	private final int keyField;
+
+	// the leaf the previous lookup ended on; every leaf to its left only
+	// holds keys up to lastKey
+	private BTreeLeafPage leaf = null;
+	private Field lastKey = null;
+	private List<Tuple> lastMatches = Collections.emptyList();
+	private int descents = 0;
+
+	BTreeKeyCursor(BTreeFile f, TransactionId tid) {
+		this.f = f;
+		this.tid = tid;
+		this.keyField = f.keyField();
+	}
+
+	private BTreeLeafPage getLeaf(BTreePageId pid) throws DbException, TransactionAbortedException {
+		return (BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+	}
+
+	/** @return whether page holds a key no smaller than key */
+	private boolean reaches(BTreeLeafPage page, Field key) {
+		Iterator<Tuple> it = page.reverseIterator();
+		return it.hasNext() && !key.compare(Op.GREATER_THAN, it.next().getField(keyField));
+	}
+
+	private BTreeLeafPage descend(Field key) throws DbException, TransactionAbortedException {
+		descents++;
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+		BTreePageId root = rootPtr.getRootId();
+		return root == null ? null : f.findLeafPage(tid, root, key);
+	}
+
+	/**
+	 * @param key - the key to look up
+	 * @return the tuples whose key field equals key; the list must not be
+	 *   modified
+	 */
+	public List<Tuple> find(Field key) throws DbException, TransactionAbortedException {
+		if (lastKey != null && key.compare(Op.EQUALS, lastKey)) {
+			return lastMatches;
+		}
+		BTreeLeafPage page = null;
+		if (leaf != null && key.compare(Op.GREATER_THAN, lastKey)) {
+			if (reaches(leaf, key)) {
+				page = leaf;
+			} else if (leaf.getRightSiblingId() != null) {
+				BTreeLeafPage sibling = getLeaf(leaf.getRightSiblingId());
+				if (reaches(sibling, key)) {
+					page = sibling;
+				}
+			}
+		}
+		if (page == null) {
+			page = descend(key);
+		}
+
+		List<Tuple> matches = new ArrayList<>();
+		scan:
+		while (page != null) {
+			leaf = page;
+			Iterator<Tuple> it = page.iterator();
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				Field k = t.getField(keyField);
+				if (k.compare(Op.EQUALS, key)) {
+					matches.add(t);
+				} else if (k.compare(Op.GREATER_THAN, key)) {
+					break scan;
+				}
+			}
+			// equal keys may continue on the next leaf
+			BTreePageId next = page.getRightSiblingId();
+			page = next == null ? null : getLeaf(next);
+		}
+		lastKey = key;
+		lastMatches = matches;
+		return matches;
+	}
+
+	/** @return how many lookups had to descend from the root */
+	public int getDescentCount() {
+		return descents;
+	}
+}
@@ -2,6 +2,7 @@ package simpledb.index;
 
 import simpledb.storage.BufferPool;
 import simpledb.storage.PageId;
+import simpledb.storage.PageRegistry;
 
 import java.util.Objects;
 
@@ -68,6 +69,25 @@ public class BTreePageId implements PageId {
 		return pgcateg;
 	}
 
+	/**
+	 * @return the tag of this kind of page in the log
+	 * @see PageRegistry
+	 */
+	public int pageType() {
+		switch (pgcateg) {
+			case ROOT_PTR:
+				return PageRegistry.BTREE_ROOT_PTR;
+			case INTERNAL:
+				return PageRegistry.BTREE_INTERNAL;
+			case LEAF:
+				return PageRegistry.BTREE_LEAF;
+			case HEADER:
+				return PageRegistry.BTREE_HEADER;
+			default:
+				throw new IllegalStateException("categ");
+		}
+	}
+
 	/**
 	 * @return a hash code for this page, represented by the combination of
 	 *   the table number, page number, and pgcateg (needed if a PageId is used as a
@@ -19,6 +19,7 @@ public class BTreeRootPtrPage implements Page {
 
 	private boolean dirty = false;
 	private TransactionId dirtier = null;
+	private volatile long lsn = -1;
 
 	private final BTreePageId pid;
 
@@ -130,7 +131,18 @@ public class BTreeRootPtrPage implements Page {
 
 	public void markDirty(boolean dirty, TransactionId tid){
 		this.dirty = dirty;
-		if (dirty) this.dirtier = tid;
+		if (dirty) {
+			this.dirtier = tid;
+			this.lsn = -1;
+		}
+	}
+
+	public long getLsn() {
+		return lsn;
+	}
+
+	public void setLsn(long lsn) {
+		this.lsn = lsn;
 	}
 
 	public TransactionId isDirty() {
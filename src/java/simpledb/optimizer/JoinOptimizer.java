@@ -2,7 +2,11 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.ParsingException;
+import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -73,7 +77,17 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (lj.p == Predicate.Op.EQUALS && SortMergeJoin.isSorted(plan1, t1id)
+                && SortMergeJoin.isSorted(plan2, t2id)) {
+            // both inputs already come in join order, e.g. from B+ trees
+            // keyed on the join fields, so merging needs no hash table
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS
+                && IndexNestedLoopJoin.canProbe(plan2, t2id)) {
+            // the right input is a B+ tree keyed on the join field; looking
+            // the left keys up reads at most about one pass over it per block
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -85,6 +99,11 @@ public class JoinOptimizer {
             } catch (Exception e) {
                 j = new Join(p, plan1, plan2);
             }
+        } else if (SortMergeJoin.supports(lj.p) && SortMergeJoin.isSorted(plan1, t1id)
+                && SortMergeJoin.isSorted(plan2, t2id)) {
+            // the matches of an outer tuple are a prefix of the inner input,
+            // so nothing past them is read
+            j = new SortMergeJoin(p, plan1, plan2);
         } else {
             j = new Join(p, plan1, plan2);
         }
@@ -121,16 +140,90 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true, true);
+    }
+
+    /**
+     * Estimate the cost of the join {@link #instantiateJoin} picks for j.
+     *
+     * @param outerIsTable
+     *            whether the left-hand side is the base table j.t1Alias
+     *            rather than a subplan that joins it
+     * @param innerIsTable
+     *            whether the right-hand side is the base table j.t2Alias;
+     *            only a base table can be probed through its index, and
+     *            only base tables are known to be read in key order
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean outerIsTable, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
+        }
+        BTreeFile index = innerIsTable ? keyIndex(j.t2Alias, j.f2PureName) : null;
+        boolean sorted = index != null && outerIsTable && keyIndex(j.t1Alias, j.f1PureName) != null;
+        if (sorted && SortMergeJoin.supports(j.p)) {
+            // both sides come in join order and are merged in one pass; a
+            // range predicate keeps roughly a third of the pairs, and the
+            // merge reads little more than those
+            double cost = cost1 + cost2 + card1 + card2;
+            return j.p == Predicate.Op.EQUALS ? cost : cost + (double) card1 * card2 / 3;
+        } else if (j.p == Predicate.Op.EQUALS && index != null) {
+            return cost1 + indexLookupCost(index, card1, cost2) + card1;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // hybrid hash join: one pass over each side, and all partitions
+            // but the first written and read back once the left side does
+            // not fit in memory
+            double cost = cost1 + cost2 + card1 + card2;
+            if (card1 > HashEquiJoin.MAP_SIZE) {
+                cost += 2 * (1.0 - 1.0 / HashEquiJoin.PARTITIONS) * (cost1 + cost2);
+            }
+            return cost;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // block nested loops: one pass over the right side per block of
+            // left tuples, and every pair compared
+            return cost1 + Math.ceil((double) card1 / Join.BLOCK_SIZE) * cost2
+                    + (double) card1 * card2;
+        }
+    }
+
+    /**
+     * @return the I/O cost of looking up lookups keys in index, whose full
+     *   scan costs scanCost
+     */
+    private static double indexLookupCost(BTreeFile index, int lookups, double scanCost) {
+        int pages = Math.max(1, index.numPages());
+        int keyLen = index.getTupleDesc().getFieldType(index.keyField()).getLen();
+        int fanout = Math.max(2, BufferPool.getPageSize() / (keyLen + Type.INT_TYPE.getLen()));
+        // a leaf and the internal levels above it
+        int height = 1 + (int) Math.ceil(Math.log(pages) / Math.log(fanout));
+        // a block of sorted keys reuses the leaves it has reached, so it
+        // reads at most about the whole tree
+        double blocks = Math.ceil((double) lookups / Join.BLOCK_SIZE);
+        double reads = Math.min((double) lookups * height, blocks * pages);
+        return reads * scanCost / pages;
+    }
+
+    /**
+     * @return the B+ tree of the table with this alias if it is keyed on
+     *   field, null otherwise
+     */
+    private BTreeFile keyIndex(String alias, String field) {
+        Integer tableId = alias == null ? null : p.getTableId(alias);
+        if (tableId == null) {
+            return null;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile)) {
+            return null;
+        }
+        BTreeFile index = (BTreeFile) f;
+        try {
+            return index.getTupleDesc().fieldNameToIndex(field) == index.keyField() ? index : null;
+        } catch (NoSuchElementException e) {
+            return null;
         }
     }
 
@@ -302,6 +395,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether a side is a base table rather than the subplan prevBest
+        boolean leftIsTable = true, rightIsTable = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -332,6 +427,7 @@ public class JoinOptimizer {
 
             // estimate cost of right subtree
             if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
+                leftIsTable = false;
                 t1cost = prevBestCost; // left side just has cost of whatever
                                        // left
                 // subtree is
@@ -348,6 +444,7 @@ public class JoinOptimizer {
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                                                         // (both
                 // shouldn't be)
+                rightIsTable = false;
                 t2cost = prevBestCost; // left side just has cost of whatever
                                        // left
                 // subtree is
@@ -366,10 +463,10 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, leftIsTable, rightIsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, rightIsTable, leftIsTable);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
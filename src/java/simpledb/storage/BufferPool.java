@@ -4,13 +4,19 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
-import util.LRUCache;
 
 import java.io.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -20,12 +26,27 @@ import java.util.List;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * By default the pool is NO-STEAL/FORCE: pages dirtied by a transaction
+ * stay in memory until it commits, and commit writes them all.  With
+ * {@link #setStealNoForce} the pool may instead write dirty pages of
+ * running transactions when it needs a frame, and commit only logs the
+ * transaction's changes; the pages reach the disk later, through eviction
+ * or the background {@link PageCleaner}.  Either way a
+ * page is written only after the log is forced through the page's LSN
+ * (see {@link Page#getLsn}), and recovery redoes or undoes what the log
+ * holds.
  * 
  * @Threadsafe, all fields are final
  */
 
 public class BufferPool {
-    private LRUCache cache;
+    private final PageTable pageTable;
+    private final LockManager lockManager;
+    private final Prefetcher prefetcher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder cleanedPages = new LongAdder();
     /** Bytes per page, including header. */
     private static final int DEFAULT_PAGE_SIZE = 4096;
 
@@ -36,6 +57,20 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Number of frames in the private ring of a large sequential scan. */
+    public static final int SCAN_RING_PAGES = 8;
+
+    /** Default number of pages read ahead of a sequential scan. */
+    public static final int DEFAULT_PREFETCH_DEPTH = 4;
+
+    private final int numPages;
+    private volatile boolean stealNoForce = false;
+    // only runs under STEAL/NO-FORCE; NO-STEAL leaves it nothing to write
+    private PageCleaner cleaner = null;
+    // takes a shared lock on each page the pool writes back on its own, so
+    // no transaction changes the page while it is logged and written
+    private final TransactionId pageWriter = new TransactionId();
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -43,10 +78,41 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
-        cache = new LRUCache(numPages);
+        this(numPages, EvictionPolicy.CLOCK);
+    }
 
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks
+     * eviction victims with the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement algorithm to use.
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
+        this.numPages = numPages;
+        pageTable = new PageTable(numPages, policy);
+        lockManager = new LockManager();
+        prefetcher = new Prefetcher(DEFAULT_PREFETCH_DEPTH, pageTable::containsKey);
     }
     
+    /**
+     * Switch between NO-STEAL/FORCE (the default) and STEAL/NO-FORCE.
+     * Transactions larger than the pool only work with STEAL/NO-FORCE.
+     */
+    public synchronized void setStealNoForce(boolean stealNoForce) {
+        this.stealNoForce = stealNoForce;
+        if (stealNoForce && cleaner == null) {
+            cleaner = PageCleaner.start(this);
+        } else if (!stealNoForce && cleaner != null) {
+            cleaner.stop();
+            cleaner = null;
+        }
+    }
+
+    public boolean isStealNoForce() {
+        return stealNoForce;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -79,14 +145,174 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if(cache.containsKey(pid)){
-            return cache.get(pid);
+        if (tid.isReadOnly() && perm == Permissions.READ_WRITE) {
+            throw new DbException("read-only transaction " + tid.getId() + " cannot write " + pid);
+        }
+        // block on the page lock before touching the cache, so waiters
+        // never hold anything another transaction could need
+        lockManager.acquire(tid, pid, perm);
+        Page page = pageTable.get(pid);
+        if (page != null) {
+            hits.increment();
+            return page;
+        }
+        misses.increment();
+        reserveFrame(tid);
+        try {
+            page = readPage(pid);
+        } catch (RuntimeException e) {
+            pageTable.unreserve();
+            throw e;
+        }
+        if (page == null) {
+            pageTable.unreserve();
+            return null;
+        }
+        return pageTable.putIfAbsent(pid, page);
+    }
+
+    /**
+     * Retrieve a page for a sequential scan. READ_ONLY requests for pages
+     * that are not resident are read into the scan's private ring rather
+     * than the main pool; everything else behaves exactly like
+     * {@link #getPage(TransactionId, PageId, Permissions)}.
+     *
+     * @param ring the scan's ring from {@link #newBufferRing}, may be null
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        if (ring == null || perm != Permissions.READ_ONLY) {
+            return getPage(tid, pid, perm);
+        }
+        lockManager.acquire(tid, pid, perm);
+        // the pool may hold a newer version, e.g. one this transaction dirtied
+        Page page = pageTable.get(pid);
+        if (page == null) {
+            page = ring.get(pid);
+        }
+        if (page != null) {
+            hits.increment();
+            return page;
+        }
+        misses.increment();
+        page = readPage(pid);
+        if (page != null) {
+            ring.add(page);
+        }
+        return page;
+    }
+
+    /** Read pid from disk, or take it from the prefetcher if it read it ahead. */
+    private Page readPage(PageId pid) {
+        Page page = prefetcher.take(pid);
+        if (page == null) {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
         }
-        Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        cache.put(pid, page);
         return page;
     }
 
+    /**
+     * Start reading a page in the background because a scan is about to
+     * ask for it. Returns immediately; does nothing if the page is already
+     * resident or prefetching is disabled. No lock is taken, the page still
+     * has to be requested with getPage.
+     */
+    public void prefetchPage(PageId pid) {
+        prefetcher.prefetch(pid);
+    }
+
+    /**
+     * Read ahead a chain of pages in the background, such as B+ tree leaves
+     * linked by right-sibling pointers. Up to the prefetch depth pages are
+     * read, starting at first; each further page id is computed from the
+     * page read before it and a null id ends the chain.
+     */
+    public void prefetchChain(PageId first, Function<Page, PageId> successor) {
+        prefetcher.prefetchChain(first, successor);
+    }
+
+    /** Number of pages read ahead of a scan; 0 means prefetching is off. */
+    public int getPrefetchDepth() {
+        return prefetcher.getDepth();
+    }
+
+    public void setPrefetchDepth(int depth) {
+        prefetcher.setDepth(Math.max(0, depth));
+    }
+
+    /** Number of pool misses served by a page that had been read ahead. */
+    public long getPrefetchHitCount() {
+        return prefetcher.getHitCount();
+    }
+
+    /** Number of pool misses that had to read from disk while prefetching was on. */
+    public long getPrefetchMissCount() {
+        return prefetcher.getMissCount();
+    }
+
+    /**
+     * Create the private ring a sequential scan should read through.
+     * Rings are only handed out when the scanned file is larger than the
+     * pool, and when the pool is big enough for a ring to be small in
+     * comparison; ring frames are not counted against the pool capacity.
+     *
+     * @param filePages the number of pages the scan will read
+     * @return a new ring, or null if the scan should use the pool directly
+     */
+    public BufferRing newBufferRing(int filePages) {
+        if (filePages <= numPages || numPages < 4 * SCAN_RING_PAGES) {
+            return null;
+        }
+        return new BufferRing(SCAN_RING_PAGES);
+    }
+
+    /** Number of getPage calls served from the pool. */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** Number of getPage calls that had to read the page from disk. */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Keep a resident page from being evicted until {@link #unpinPage} is
+     * called. Pins nest; each pin needs its own unpin.
+     *
+     * @return false if the page is not in the buffer pool
+     */
+    public boolean pinPage(PageId pid) {
+        return pageTable.pin(pid);
+    }
+
+    /** Undo one {@link #pinPage} on the page. */
+    public void unpinPage(PageId pid) {
+        pageTable.unpin(pid);
+    }
+
+    /**
+     * Claim a frame in the page table for tid, evicting pages until one is
+     * free.
+     */
+    private void reserveFrame(TransactionId tid) throws DbException {
+        while (!pageTable.reserve()) {
+            evictPage(tid);
+        }
+    }
+
+    /** Make page, changed by tid, the resident version of its page id. */
+    private void installPage(TransactionId tid, Page page) throws DbException {
+        PageId pid = page.getId();
+        if (pageTable.replace(pid, page)) {
+            return;
+        }
+        reserveFrame(tid);
+        if (pageTable.putIfAbsent(pid, page) != page) {
+            pageTable.replace(pid, page);
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -99,6 +325,7 @@ public class BufferPool {
     public  void unsafeReleasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -109,13 +336,19 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /** Return the number of transactions aborted to resolve deadlocks */
+    public long getDeadlockAbortCount() {
+        return lockManager.getDeadlockAbortCount();
     }
 
     /**
@@ -124,10 +357,65 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws RuntimeException if the transaction's changes could not be
+     *   logged or written; the transaction is then rolled back instead,
+     *   and must not be logged as committed
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        if (tid.isReadOnly()) {
+            // it cannot have dirtied anything
+            lockManager.releaseAll(tid);
+            return;
+        }
+        try {
+            if (commit && stealNoForce) {
+                logPages(tid);
+            } else if (commit) {
+                flushPages(tid);
+            } else {
+                restorePages(tid);
+            }
+        } catch (IOException e) {
+            // the changes may be only partly in the log or on disk
+            try {
+                Database.getLogFile().logAbort(tid);
+            } catch (IOException | NoSuchElementException rollbackFailed) {
+                e.addSuppressed(rollbackFailed);
+            }
+            restorePages(tid);
+            throw new RuntimeException("could not commit transaction " + tid.getId(), e);
+        } finally {
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Throw away the changes of the given transaction that never reached
+     * the log, so that the next reader sees the page as of the last
+     * committed transaction again.  The log's rollback has already taken
+     * care of pages with logged changes.
+     */
+    private synchronized void restorePages(TransactionId tid) {
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Page page = pageTable.get(pid);
+            if (page == null || !tid.equals(page.isDirty())) {
+                continue;
+            }
+            if (!stealNoForce) {
+                // the disk holds the committed version
+                pageTable.remove(pid);
+                continue;
+            }
+            // the before image may hold committed changes that are not on
+            // disk yet, so it stays dirty; their records may not be forced
+            // either, so force the whole log before writing it
+            Page restored = page.getBeforeImage();
+            restored.markDirty(true, tid);
+            restored.setLsn(Long.MAX_VALUE);
+            pageTable.replace(pid, restored);
+        }
     }
 
     /**
@@ -149,12 +437,11 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapFile heapFile = (HeapFile)Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> pages = heapFile.insertTuple(tid, t);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> pages = file.insertTuple(tid, t);
         for(Page page: pages){
-            HeapPage heapPage = (HeapPage) page;
-            heapPage.markDirty(true, tid);
-            cache.put(heapPage.getId(), heapPage);
+            page.markDirty(true, tid);
+            installPage(tid, page);
         }
 
     }
@@ -177,14 +464,11 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         RecordId recordId = t.getRecordId();
-        HeapFile heapFile = (HeapFile)Database.getCatalog().getDatabaseFile(recordId.getPageId().getTableId());
-        List<Page> pages = heapFile.deleteTuple(tid, t);
-
-        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        DbFile file = Database.getCatalog().getDatabaseFile(recordId.getPageId().getTableId());
+        List<Page> pages = file.deleteTuple(tid, t);
         for(Page page: pages){
-            HeapPage heapPage = (HeapPage) page;
-            heapPage.markDirty(true, tid);
-            cache.put(heapPage.getId(), heapPage);
+            page.markDirty(true, tid);
+            installPage(tid, page);
         }
     }
 
@@ -196,7 +480,20 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
+        List<Page> dirty = new ArrayList<>();
+        for (PageId pid : pageTable.pageIds()) {
+            Page page = pageTable.get(pid);
+            if (page != null && page.isDirty() != null) {
+                dirty.add(page);
+            }
+        }
+        writeBack(dirty);
+    }
 
+    /** @return the resident page with this id, or null.  Takes no locks;
+        used by the log to roll back from the latest logged image. */
+    Page peekPage(PageId pid) {
+        return pageTable.get(pid);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -210,6 +507,8 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        pageTable.remove(pid);
+        prefetcher.invalidate(pid);
     }
 
     /**
@@ -219,6 +518,10 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        Page page = pageTable.get(pid);
+        if (page != null && page.isDirty() != null) {
+            writeBack(new ArrayList<>(Collections.singletonList(page)));
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -226,15 +529,188 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        List<Page> pages = new ArrayList<>();
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Page page = pageTable.get(pid);
+            if (page != null) {
+                pages.add(page);
+            }
+        }
+        List<Page> dirty = new ArrayList<>();
+        for (Page page : pages) {
+            if (page.isDirty() != null) {
+                dirty.add(page);
+            }
+        }
+        writeBack(dirty);
+        // the committed contents become the before image of the next
+        // transaction that updates these pages
+        for (Page page : pages) {
+            page.setBeforeImage();
+        }
+    }
+
+    /**
+     * NO-FORCE commit: log the changes of the transaction's pages but
+     * leave the pages dirty in the pool.  The caller forces the log with
+     * the COMMIT record.
+     */
+    private synchronized void logPages(TransactionId tid) throws IOException {
+        LogFile log = Database.getLogFile();
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Page page = pageTable.get(pid);
+            if (page != null && page.isDirty() != null) {
+                logChanges(log, page);
+            }
+        }
+    }
+
+    /**
+     * Log the changes made to a dirty page since it was last logged, if
+     * there are any, and make the logged contents its new before image.
+     */
+    private void logChanges(LogFile log, Page page) throws IOException {
+        TransactionId dirtier = page.isDirty();
+        if (page.getLsn() != -1 || dirtier == null) {
+            return;
+        }
+        long lsn = log.logWrite(dirtier, page.getBeforeImage(), page);
+        page.setBeforeImage();
+        page.setLsn(lsn);
+    }
+
+    /**
+     * Write dirty pages back to disk: log the changes not logged yet and
+     * force the log through the pages' LSNs once, then write the pages
+     * sorted by table and page number so each file sees ascending offsets
+     * and can coalesce adjacent pages into a single write.
+     */
+    private synchronized void writeBack(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        pages.sort(Comparator.comparingInt((Page p) -> p.getId().getTableId())
+                .thenComparingInt(p -> p.getId().getPageNumber()));
+        long[] lsns = new long[pages.size()];
+        long maxLsn = -1;
+        for (int i = 0; i < pages.size(); i++) {
+            logChanges(log, pages.get(i));
+            lsns[i] = pages.get(i).getLsn();
+            maxLsn = Math.max(maxLsn, lsns[i]);
+        }
+        // the write-ahead rule
+        log.force(maxLsn);
+        assert log.isForced(maxLsn) : "log not forced through " + maxLsn;
+        int start = 0;
+        for (int i = 1; i <= pages.size(); i++) {
+            int tableId = pages.get(start).getId().getTableId();
+            if (i < pages.size() && pages.get(i).getId().getTableId() == tableId) {
+                continue;
+            }
+            Database.getCatalog().getDatabaseFile(tableId).writePages(pages.subList(start, i));
+            start = i;
+        }
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            // a copy read ahead before this write is stale now
+            prefetcher.invalidate(page.getId());
+            // a page its transaction changed again meanwhile stays dirty
+            if (page.getLsn() == lsns[i]) {
+                page.markDirty(false, null);
+                log.pageWritten(page.getId());
+            }
+        }
+    }
+
+    /**
+     * Write a page back for a checkpoint, if it is resident, dirty and may
+     * be written, that is under STEAL. Locks the pool for this one page
+     * only, so a checkpoint going through its dirty page table does not
+     * stall other queries.
+     */
+    synchronized void flushForCheckpoint(PageId pid) throws IOException {
+        Page page = pageTable.get(pid);
+        if (page != null && page.isDirty() != null && stealNoForce
+                && lockManager.tryAcquire(pageWriter, pid, Permissions.READ_ONLY)) {
+            try {
+                writeBack(new ArrayList<>(Collections.singletonList(page)));
+            } finally {
+                lockManager.releaseAll(pageWriter);
+            }
+        }
+    }
+
+    /**
+     * Write back up to max dirty, unpinned pages that may leave the pool
+     * early. Called periodically by the page cleaner.
+     *
+     * @return the number of pages written
+     */
+    synchronized int cleanPages(int max) throws IOException {
+        List<Page> pages = collectWritable(null, max);
+        try {
+            writeBack(pages);
+        } finally {
+            lockManager.releaseAll(pageWriter);
+        }
+        cleanedPages.add(pages.size());
+        return pages.size();
+    }
+
+    /** Number of pages written back by the background page cleaner. */
+    public long getCleanedPageCount() {
+        return cleanedPages.sum();
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
      */
-    private synchronized  void evictPage() throws DbException {
+    private synchronized  void evictPage(TransactionId tid) throws DbException {
         // some code goes here
         // not necessary for lab1
+        // only clean, unpinned pages leave the pool; under STEAL a batch
+        // of dirty pages is written back first to make some clean
+        while (pageTable.evict(page -> page.isDirty() == null) == null) {
+            if (!stealNoForce) {
+                throw new DbException("cannot evict: all pages in the buffer pool are dirty");
+            }
+            List<Page> dirty = collectWritable(tid, PageCleaner.BATCH_PAGES);
+            try {
+                if (dirty.isEmpty()) {
+                    throw new DbException("cannot evict: all pages in the buffer pool are pinned "
+                            + "or being changed by other transactions");
+                }
+                writeBack(dirty);
+            } catch (IOException e) {
+                throw new DbException("cannot evict: " + e.getMessage());
+            } finally {
+                lockManager.releaseAll(pageWriter);
+            }
+        }
+    }
+
+    /**
+     * Choose up to max dirty pages that may be written back now.  Under
+     * NO-STEAL there are none: until its transaction commits a dirty page
+     * holds changes that must not reach the disk, while under STEAL the
+     * log makes them undoable.  Pages have no latches, so a page some
+     * running transaction holds a write lock on may be in the middle of a
+     * change; only tid's own pages (tid is waiting for this eviction, so
+     * it is not changing them) and pages pageWriter can lock shared are
+     * chosen.  The caller releases pageWriter's locks once the pages are
+     * written.
+     *
+     * @param tid the transaction the pool evicts for, or null
+     */
+    private List<Page> collectWritable(TransactionId tid, int max) {
+        if (!stealNoForce) {
+            return new ArrayList<>();
+        }
+        return pageTable.collect(page -> page.isDirty() != null
+                && ((tid != null && tid.equals(page.isDirty()))
+                    || lockManager.tryAcquire(pageWriter, page.getId(), Permissions.READ_ONLY)), max);
     }
 
 }
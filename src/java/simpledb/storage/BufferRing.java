@@ -0,0 +1,45 @@
+package simpledb.storage;
+
+/**
+ * A small ring of frames private to one sequential scan.
+ * <p>
+ * Pages a large scan reads from disk are kept here instead of in the main
+ * page table, and each new page overwrites the oldest one. A scan over a
+ * table much larger than the pool therefore recycles a handful of frames
+ * rather than pushing every hot page out of the BufferPool. Pages that are
+ * already resident in the pool are still served from there.
+ * <p>
+ * A ring is owned by a single iterator and is not thread-safe.
+ *
+ * @see BufferPool#newBufferRing
+ */
+public class BufferRing {
+    private final Page[] frames;
+    private int next;
+
+    BufferRing(int size) {
+        this.frames = new Page[size];
+        this.next = 0;
+    }
+
+    /** @return the page held in the ring under pid, or null */
+    Page get(PageId pid) {
+        for (Page p : frames) {
+            if (p != null && p.getId().equals(pid)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /** Put page in the ring, replacing the oldest frame. */
+    void add(Page page) {
+        frames[next] = page;
+        next = (next + 1) % frames.length;
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return frames.length;
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Frames sit in a ring; a hit sets the
+ * frame's reference bit, and the hand clears bits as it sweeps until it
+ * finds an unreferenced frame that may be evicted.
+ */
+class ClockPolicy implements ReplacementPolicy {
+    private final List<PageTable.Frame> ring = new ArrayList<>();
+    private int hand;
+
+    @Override
+    public void admit(PageTable.Frame f) {
+        f.referenced = true;
+        f.slot = ring.size();
+        ring.add(f);
+    }
+
+    @Override
+    public void access(PageTable.Frame f) {
+        f.referenced = true;
+    }
+
+    @Override
+    public void remove(PageTable.Frame f) {
+        // swap the last frame into the hole to keep removal O(1)
+        int last = ring.size() - 1;
+        PageTable.Frame moved = ring.get(last);
+        ring.set(f.slot, moved);
+        moved.slot = f.slot;
+        ring.remove(last);
+        if (hand >= ring.size()) {
+            hand = 0;
+        }
+    }
+
+    @Override
+    public PageTable.Frame victim(Predicate<PageTable.Frame> evictable) {
+        // two full turns: the first may only clear reference bits
+        for (int steps = 2 * ring.size(); steps > 0 && !ring.isEmpty(); steps--) {
+            PageTable.Frame f = ring.get(hand);
+            hand = (hand + 1) % ring.size();
+            if (f.referenced) {
+                f.referenced = false;
+            } else if (evictable.test(f)) {
+                return f;
+            }
+        }
+        return null;
+    }
+}
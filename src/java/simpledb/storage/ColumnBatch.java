@@ -0,0 +1,163 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+/**
+ * ColumnBatch holds up to a fixed number of rows column by column: an
+ * int[] for every INT_TYPE column and a String[] for every STRING_TYPE
+ * column, so batch operators work on plain arrays instead of Tuples and
+ * Fields.
+ * <p>
+ * A selection vector lists the rows that are still part of the batch, in
+ * ascending order; without one every row from 0 to size() - 1 is. A
+ * filter only replaces the selection vector and leaves the columns alone.
+ * <p>
+ * A batch returned by an operator is only valid until the next call to
+ * that operator, which may reuse the arrays.  The receiver may replace
+ * the selection vector but must not change the columns.
+ */
+public class ColumnBatch {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final String[][] strings;
+    private int size;
+    private int[] sel;
+    private int selSize;
+
+    /** Create an empty batch for rows of td that holds up to capacity rows. */
+    public ColumnBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                strings[i] = new String[capacity];
+            }
+        }
+    }
+
+    private ColumnBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows stored, selected or not */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Drop all rows and the selection vector. */
+    public void clear() {
+        size = 0;
+        sel = null;
+        selSize = 0;
+    }
+
+    /** Set the number of rows stored after writing the columns directly. */
+    public void setSize(int size) {
+        if (size < 0 || size > capacity) {
+            throw new IllegalArgumentException("size " + size + " out of range");
+        }
+        this.size = size;
+    }
+
+    /** @return the values of INT_TYPE column i */
+    public int[] ints(int i) {
+        return ints[i];
+    }
+
+    /** @return the values of STRING_TYPE column i */
+    public String[] strings(int i) {
+        return strings[i];
+    }
+
+    /** @return the number of selected rows */
+    public int count() {
+        return sel == null ? size : selSize;
+    }
+
+    /** @return the index of the i-th selected row */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /** @return the selection vector, or null if every row is selected */
+    public int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Select only the rows listed in the first n entries of sel, which must
+     * be ascending row indexes.  The batch keeps the array.
+     */
+    public void select(int[] sel, int n) {
+        this.sel = sel;
+        this.selSize = n;
+    }
+
+    /**
+     * @return a batch of the given columns of this one, in the given order,
+     *   sharing this batch's arrays and selection
+     */
+    public ColumnBatch project(int[] fields, TupleDesc td) {
+        int[][] pInts = new int[fields.length][];
+        String[][] pStrings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            pInts[i] = ints[fields[i]];
+            pStrings[i] = strings[fields[i]];
+        }
+        ColumnBatch res = new ColumnBatch(td, capacity, pInts, pStrings);
+        res.size = size;
+        res.sel = sel;
+        res.selSize = selSize;
+        return res;
+    }
+
+    /**
+     * Append a tuple as a new row.  Only valid while no selection vector
+     * is set.
+     */
+    public void add(Tuple t) {
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = ((IntField) t.getField(i)).getValue();
+            } else {
+                strings[i][size] = ((StringField) t.getField(i)).getValue();
+            }
+        }
+        size++;
+    }
+
+    /** @return the stored row with index row as a Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                t.setField(i, new IntField(ints[i][row]));
+            } else {
+                t.setField(i, new StringField(strings[i][row], Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+}
@@ -33,6 +33,19 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk. Implementations may reorder
+     * the pages and coalesce adjacent ones into larger writes.
+     *
+     * @param pages The pages to write, all belonging to this file.
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -93,4 +106,13 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Release any open file handles. The Catalog calls this when the table
+     * is dropped or replaced; a file used again after close reopens itself.
+     *
+     * @throws IOException if closing the underlying file fails
+     */
+    default void close() throws IOException {
+    }
 }
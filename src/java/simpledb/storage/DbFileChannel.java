@@ -0,0 +1,199 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * DbFileChannel keeps one FileChannel open for a DbFile and does all of
+ * the file's page I/O with positional reads and writes, so concurrent
+ * readers and writers never share a file pointer and no file is opened per
+ * page.
+ * <p>
+ * The channel is opened on first use. {@link #close} releases it, usually
+ * through {@link simpledb.common.Catalog#clear}; a later read or write
+ * simply opens it again. If another thread closes the channel under an
+ * operation, for example because it was interrupted in the middle of its
+ * own I/O, the operation is retried once on a fresh channel.
+ * <p>
+ * {@link #readMapped} serves reads from a read-only memory mapping of the
+ * file instead. The file is mapped in fixed-size chunks; the last chunk is
+ * remapped as the file grows, so the mapping never extends past the end of
+ * the file. Writes still go through the channel and are visible through the
+ * mapping, since both share the OS page cache.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+    private final File file;
+    private volatile FileChannel channel;
+
+    /** Size of one mapped chunk, 1MB, a multiple of any power-of-two page size. */
+    private static final int MAP_CHUNK_BYTES = 1 << 20;
+    // read-only mappings of the file, indexed by chunk; replaced as a whole
+    // when a chunk is added or remapped
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Read len bytes starting at position.
+     *
+     * @throws IllegalArgumentException if the file ends before len bytes
+     *   could be read
+     */
+    public byte[] read(long position, int len) throws IOException {
+        try {
+            return readOnce(position, len);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            return readOnce(position, len);
+        }
+    }
+
+    private byte[] readOnce(long position, int len) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new IllegalArgumentException("read past end of " + file + " at offset "
+                        + (position + buf.position()));
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Return len bytes starting at position as a read-only slice of the
+     * memory-mapped file. Regions that straddle two chunks are read
+     * through the channel instead.
+     *
+     * @throws IllegalArgumentException if the region extends past the end
+     *   of the file
+     */
+    public ByteBuffer readMapped(long position, int len) throws IOException {
+        int index = (int) (position / MAP_CHUNK_BYTES);
+        int offset = (int) (position % MAP_CHUNK_BYTES);
+        if (offset + len > MAP_CHUNK_BYTES) {
+            return ByteBuffer.wrap(read(position, len));
+        }
+        MappedByteBuffer[] cs = chunks;
+        MappedByteBuffer chunk = index < cs.length ? cs[index] : null;
+        if (chunk == null || chunk.capacity() < offset + len) {
+            chunk = mapChunk(index, offset + len);
+        }
+        ByteBuffer slice = chunk.duplicate();
+        slice.position(offset);
+        slice.limit(offset + len);
+        return slice.slice();
+    }
+
+    /** Map chunk index so that it covers at least its first minBytes bytes. */
+    private synchronized MappedByteBuffer mapChunk(int index, int minBytes) throws IOException {
+        MappedByteBuffer[] cs = chunks;
+        if (index < cs.length && cs[index] != null && cs[index].capacity() >= minBytes) {
+            return cs[index];
+        }
+        FileChannel ch = channel();
+        long start = (long) index * MAP_CHUNK_BYTES;
+        long size = Math.min(MAP_CHUNK_BYTES, ch.size() - start);
+        if (size < minBytes) {
+            throw new IllegalArgumentException("read past end of " + file + " at offset "
+                    + (start + minBytes));
+        }
+        MappedByteBuffer chunk = ch.map(FileChannel.MapMode.READ_ONLY, start, size);
+        MappedByteBuffer[] grown = Arrays.copyOf(cs, Math.max(cs.length, index + 1));
+        grown[index] = chunk;
+        chunks = grown;
+        return chunk;
+    }
+
+    /** Write all of data starting at position, growing the file if needed. */
+    public void write(long position, byte[] data) throws IOException {
+        try {
+            writeOnce(position, data);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            writeOnce(position, data);
+        }
+    }
+
+    private void writeOnce(long position, byte[] data) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            ch.write(buf, position + buf.position());
+        }
+    }
+
+    /**
+     * Write several buffers back to back starting at position with a
+     * single gathering write. FileChannel has no positional gathering
+     * write, so these calls are serialized on the channel position; plain
+     * positional reads and writes are unaffected.
+     */
+    public void writeGathered(long position, byte[][] data) throws IOException {
+        try {
+            writeGatheredOnce(position, data);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            writeGatheredOnce(position, data);
+        }
+    }
+
+    private synchronized void writeGatheredOnce(long position, byte[][] data) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer[] bufs = new ByteBuffer[data.length];
+        long remaining = 0;
+        for (int i = 0; i < data.length; i++) {
+            bufs[i] = ByteBuffer.wrap(data[i]);
+            remaining += data[i].length;
+        }
+        ch.position(position);
+        while (remaining > 0) {
+            remaining -= ch.write(bufs);
+        }
+    }
+
+    /** Append data at the current end of the file. */
+    public synchronized void append(byte[] data) throws IOException {
+        write(channel().size(), data);
+    }
+
+    /** Close the channel; the next read or write reopens it. */
+    public synchronized void close() throws IOException {
+        // mappings stay valid after the channel is closed; dropping them
+        // lets them be unmapped once no page refers to them any more
+        chunks = new MappedByteBuffer[0];
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package simpledb.storage;
+
+/**
+ * Page replacement algorithms the BufferPool can be constructed with.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy)
+ */
+public enum EvictionPolicy {
+    /** Second-chance CLOCK sweep over a ring of frames. */
+    CLOCK,
+    /** 2Q: new pages enter a FIFO and are promoted on re-reference. */
+    TWO_Q,
+    /** LRU-2: evict the page whose second-to-last access is oldest. */
+    LRU_2;
+
+    /** Create the replacement state for a shard of the given capacity. */
+    ReplacementPolicy create(int shardCapacity) {
+        switch (this) {
+            case TWO_Q:
+                return new TwoQueuePolicy(shardCapacity);
+            case LRU_2:
+                return new LruKPolicy(shardCapacity);
+            default:
+                return new ClockPolicy();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * FreeSpaceMap remembers how many free slots each page of a HeapFile has,
+ * so that an insert can go straight to a page with room instead of walking
+ * the whole file.
+ * <p>
+ * The map keeps one byte per page, the number of free slots capped at 255.
+ * In memory it follows inserts and deletes as they happen. On disk it lives
+ * in a sidecar file next to the heap file and is written through whenever a
+ * page is written, so the sidecar describes the pages as they are on disk.
+ * A sidecar that is missing, or older than its heap file because the file
+ * was regenerated, is rebuilt from the page headers the first time the map
+ * is used.
+ * <p>
+ * Entries are hints: a page may have filled up or emptied since it was
+ * recorded, so callers must check the page itself.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+    /** Number of pages with room that concurrent inserters are spread over. */
+    private static final int SPREAD = 4;
+    private static final int MAX_FREE = 0xff;
+
+    private final File file;
+    private final DbFileChannel channel;
+    private byte[] free = new byte[0];
+    private final BitSet hasRoom = new BitSet();
+    // lowest page with room, or -1
+    private int firstFree = -1;
+
+    /**
+     * @param heapFile the heap file this map describes
+     * @param numPages the current number of pages in the heap file
+     * @param freeSlotsOnDisk reads the free slot count of a page from disk,
+     *   used to rebuild entries the sidecar does not have
+     */
+    FreeSpaceMap(File heapFile, int numPages, IntUnaryOperator freeSlotsOnDisk) throws IOException {
+        this.file = new File(heapFile.getPath() + ".fsm");
+        boolean valid = file.exists() && file.lastModified() >= heapFile.lastModified()
+                && file.length() <= numPages;
+        this.channel = new DbFileChannel(file);
+        byte[] stored = valid ? channel.read(0, (int) file.length()) : new byte[0];
+        for (int i = 0; i < numPages; i++) {
+            int n = i < stored.length ? stored[i] & MAX_FREE : freeSlotsOnDisk.applyAsInt(i);
+            set(i, n);
+        }
+        if (stored.length < numPages) {
+            channel.write(stored.length, Arrays.copyOfRange(free, stored.length, numPages));
+        }
+    }
+
+    private void set(int pgNo, int freeSlots) {
+        if (pgNo >= free.length) {
+            free = Arrays.copyOf(free, Math.max(pgNo + 1, free.length * 2));
+        }
+        free[pgNo] = (byte) Math.min(freeSlots, MAX_FREE);
+        if (freeSlots > 0) {
+            hasRoom.set(pgNo);
+            if (firstFree < 0 || pgNo < firstFree) {
+                firstFree = pgNo;
+            }
+        } else {
+            hasRoom.clear(pgNo);
+            if (pgNo == firstFree) {
+                firstFree = hasRoom.nextSetBit(pgNo + 1);
+            }
+        }
+    }
+
+    /**
+     * Pick a page that should have room for another tuple. Inserters with
+     * different seeds are spread over the first few such pages so they do
+     * not all queue up for the lock on one page; the same seed keeps
+     * choosing the same page.
+     *
+     * @return a page number, or -1 if no page is known to have room
+     */
+    synchronized int candidate(long seed) {
+        if (firstFree < 0) {
+            return -1;
+        }
+        int[] pages = new int[SPREAD];
+        int n = 0;
+        for (int p = firstFree; p >= 0 && n < SPREAD; p = hasRoom.nextSetBit(p + 1)) {
+            pages[n++] = p;
+        }
+        return pages[(int) Math.floorMod(seed, (long) n)];
+    }
+
+    /** Record the free slot count of a page changed in memory. */
+    synchronized void update(int pgNo, int freeSlots) {
+        set(pgNo, freeSlots);
+    }
+
+    /** Record the free slot count of a page that was just written to disk. */
+    synchronized void persist(int pgNo, int freeSlots) throws IOException {
+        set(pgNo, freeSlots);
+        channel.write(pgNo, new byte[] { free[pgNo] });
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
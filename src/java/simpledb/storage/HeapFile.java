@@ -25,6 +25,10 @@ import java.util.*;
 public class HeapFile implements DbFile {
     private  File file;
     private  TupleDesc td;
+    private final DbFileChannel channel;
+    private final boolean memoryMapped;
+    // loaded on the first insert or delete
+    private volatile FreeSpaceMap freeSpaceMap;
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -34,8 +38,28 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading its pages through a memory mapping of the file. Mapped reads
+     * need no read system calls and no copy, which suits read-mostly tables
+     * that the OS can keep cached; writes are unaffected.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param memoryMapped whether readPage should use the memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         this.file = f;
         this.td = td;
+        this.channel = new DbFileChannel(f);
+        this.memoryMapped = memoryMapped;
+    }
+
+    /** Returns true if pages of this file are read through a memory mapping. */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
     }
 
     /**
@@ -77,17 +101,15 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        final int offset = pid.getPageNumber() * BufferPool.getPageSize();
-        byte[] data = new byte[BufferPool.getPageSize()];
-        try{
-            RandomAccessFile rFile = new RandomAccessFile(this.file, "r");
-            rFile.seek(offset);
-            rFile.read(data, 0, data.length);
-            HeapPage heapPage = new HeapPage((HeapPageId) pid, data);
-            rFile.close();
-            return heapPage;
-        } catch (Exception e) {
-            return null;
+        final long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
+        try {
+            if (memoryMapped) {
+                return new HeapPage((HeapPageId) pid, channel.readMapped(offset, BufferPool.getPageSize()));
+            }
+            byte[] data = channel.read(offset, BufferPool.getPageSize());
+            return new HeapPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -95,17 +117,66 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        final int offset = page.getId().getPageNumber() * BufferPool.getPageSize();
-        byte[] data = page.getPageData();
-        try{
-            RandomAccessFile wFile = new RandomAccessFile(this.file, "rw");
-            wFile.seek(offset);
-            wFile.write(data);
-            wFile.close();
-        } catch (Exception e) {
+        final long offset = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+        channel.write(offset, page.getPageData());
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm != null) {
+            fsm.persist(page.getId().getPageNumber(), ((HeapPage) page).getNumEmptySlots());
+        }
+    }
 
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        // one gathering write per run of consecutive page numbers
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        int start = 0;
+        for (int i = 1; i <= sorted.size(); i++) {
+            if (i < sorted.size() && sorted.get(i).getId().getPageNumber()
+                    == sorted.get(i - 1).getId().getPageNumber() + 1) {
+                continue;
+            }
+            byte[][] run = new byte[i - start][];
+            for (int j = start; j < i; j++) {
+                run[j - start] = sorted.get(j).getPageData();
+            }
+            long offset = (long) sorted.get(start).getId().getPageNumber() * BufferPool.getPageSize();
+            channel.writeGathered(offset, run);
+            start = i;
         }
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm != null) {
+            for (Page page : sorted) {
+                fsm.persist(page.getId().getPageNumber(), ((HeapPage) page).getNumEmptySlots());
+            }
+        }
+    }
 
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm != null) {
+            fsm.close();
+        }
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it on first use.
+     */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpaceMap;
+                if (fsm == null) {
+                    fsm = new FreeSpaceMap(file, numPages(), pgNo ->
+                            ((HeapPage) readPage(new HeapPageId(getId(), pgNo))).getNumEmptySlots());
+                    freeSpaceMap = fsm;
+                }
+            }
+        }
+        return fsm;
     }
 
     /**
@@ -122,24 +193,40 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         ArrayList<Page> res = new ArrayList<>();
-        for(int i = 0; i < numPages(); i++){
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        // try the pages the free-space map says have room; a stale entry
+        // is corrected and the next candidate tried
+        int i;
+        while ((i = fsm.candidate(tid.getId())) >= 0) {
+            if (i >= numPages()) {
+                fsm.update(i, 0);
+                continue;
+            }
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean held = bp.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
             if(page != null && page.getNumEmptySlots() > 0){
                 page.insertTuple(t);
                 page.markDirty(true, tid);
+                fsm.update(i, page.getNumEmptySlots());
                 res.add(page);
-                break;
+                return res;
+            }
+            fsm.update(i, 0);
+            if (!held) {
+                // nothing was read or changed, so the lock can go
+                bp.unsafeReleasePage(tid, pid);
             }
         }
-        if(res.size() == 0){
-            HeapPageId heapPageId = new HeapPageId(getId(), numPages());
-            HeapPage heapPage = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
-            this.writePage(heapPage);
-            heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-            heapPage.insertTuple(t);
-            heapPage.markDirty(true, tid);
-            res.add(heapPage);
-        }
+        HeapPageId heapPageId = new HeapPageId(getId(), numPages());
+        HeapPage heapPage = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
+        this.writePage(heapPage);
+        heapPage = (HeapPage) bp.getPage(tid, heapPageId, Permissions.READ_WRITE);
+        heapPage.insertTuple(t);
+        heapPage.markDirty(true, tid);
+        fsm.update(heapPageId.getPageNumber(), heapPage.getNumEmptySlots());
+        res.add(heapPage);
         return res;
         // not necessary for lab1
     }
@@ -154,6 +241,11 @@ public class HeapFile implements DbFile {
             heapPage.deleteTuple(t);
             heapPage.markDirty(true, tid);
             res.add(heapPage);
+            try {
+                freeSpaceMap().update(heapPage.getId().getPageNumber(), heapPage.getNumEmptySlots());
+            } catch (IOException e) {
+                throw new DbException("cannot load free-space map: " + e.getMessage());
+            }
         }
         return res;
         // not necessary for lab1
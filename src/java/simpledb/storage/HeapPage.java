@@ -4,10 +4,12 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -22,11 +24,22 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
+    // decoded tuples, filled in the first time a slot is read; a used slot
+    // whose entry is still null holds the tuple encoded in raw. Guarded by
+    // the array's monitor since readers share the page.
     final Tuple[] tuples;
     final int numSlots;
     private TransactionId tid;
+    private volatile long lsn = -1;
 
-    byte[] oldData;
+    // the page bytes this page was built from; never written to, changes
+    // live in header and tuples until the next snapshot
+    private volatile ByteBuffer raw;
+    // set once a slot was inserted or deleted since raw was taken
+    private boolean modified;
+
+    // bytes of the before image; shares raw until the page changes
+    ByteBuffer oldData;
     private final Byte oldDataLock= (byte) 0;
 
     /**
@@ -41,32 +54,39 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Only the header is decoded here; tuples are decoded from the raw bytes
+     * the first time their slot is read.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page's bytes, such as a
+     * slice of a memory-mapped file, without copying the bytes. Reads from
+     * the buffer's position up to its limit; the caller must not modify
+     * those bytes afterwards.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        if (data.remaining() < header.length + numSlots * td.getSize()) {
+            throw new EOFException("page " + id.getPageNumber() + " is truncated");
         }
-        dis.close();
+        this.raw = data.slice().asReadOnlyBuffer();
+        raw.duplicate().get(header);
 
-        setBeforeImage();
+        tuples = new Tuple[numSlots];
+        oldData = raw;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -93,7 +113,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
@@ -110,7 +130,13 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        if (modified) {
+            // take a snapshot of the current contents and decode from it
+            // from now on; decoded tuples stay valid since they match it
+            raw = ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+            modified = false;
+        }
+        oldData = raw;
         }
     }
 
@@ -124,36 +150,30 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in a used slot, decoding it on first access.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private Tuple tupleAt(int slotId) {
+        synchronized (tuples) {
+            Tuple t = tuples[slotId];
+            if (t == null) {
+                t = decodeTuple(slotId);
+                tuples[slotId] = t;
             }
-            return null;
+            return t;
         }
+    }
 
-        // read fields in the tuple
+    /**
+     * Decode the tuple stored in slotId of the raw page bytes.
+     */
+    private Tuple decodeTuple(int slotId) {
+        ByteBuffer buf = raw.duplicate();
+        buf.position(header.length + slotId * td.getSize());
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, td.getFieldType(j).parse(buf));
         }
-
         return t;
     }
 
@@ -164,69 +184,61 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * Slots that were not changed since the page was read are copied from
+     * the raw bytes without being decoded.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[len];
+        ByteBuffer out = ByteBuffer.wrap(data);
+        DataOutputStream dos = new DataOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                out.put((byte) b);
+            }
 
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+            @Override
+            public void write(byte[] b, int off, int n) {
+                out.put(b, off, n);
             }
-        }
+        });
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        // create the header of the page
+        out.put(header);
 
-            // empty slot
+        // create the tuples; empty slots and the padding stay zero
+        ByteBuffer src = raw.duplicate();
+        int tupleSize = td.getSize();
+        for (int i=0; i<numSlots; i++) {
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
                 continue;
             }
-
-            // non-empty slot
+            int offset = header.length + i * tupleSize;
+            Tuple t;
+            synchronized (tuples) {
+                t = tuples[i];
+            }
+            if (t == null) {
+                src.position(offset);
+                src.get(data, offset, tupleSize);
+                continue;
+            }
+            out.position(offset);
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-                
+                    t.getField(j).serialize(dos);
                 } catch (IOException e) {
+                    // this really shouldn't happen
                     e.printStackTrace();
                 }
             }
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data;
     }
 
     /**
@@ -262,7 +274,10 @@ public class HeapPage implements Page {
             throw new DbException("slot is not used!");
         }
         markSlotUsed(i, false);
-        this.tuples[i] = null;
+        synchronized (tuples) {
+            this.tuples[i] = null;
+        }
+        modified = true;
     }
 
     /**
@@ -282,7 +297,10 @@ public class HeapPage implements Page {
             if(!isSlotUsed(i)) {
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(this.pid, i));
-                this.tuples[i] = t;
+                synchronized (tuples) {
+                    this.tuples[i] = t;
+                }
+                modified = true;
                 return;
             }
         }
@@ -297,6 +315,24 @@ public class HeapPage implements Page {
         // some code goes here
 	// not necessary for lab1
         this.tid = dirty ? tid : null;
+        if (dirty) {
+            lsn = -1;
+        }
+        if (dirty && raw.isDirect()) {
+            // raw may be a view of a memory-mapped file, which changes when
+            // this page is flushed; keep a private copy from now on
+            synchronized (oldDataLock) {
+                if (raw.isDirect()) {
+                    byte[] copy = new byte[raw.remaining()];
+                    raw.duplicate().get(copy);
+                    ByteBuffer old = raw;
+                    raw = ByteBuffer.wrap(copy).asReadOnlyBuffer();
+                    if (oldData == old) {
+                        oldData = raw;
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -308,6 +344,14 @@ public class HeapPage implements Page {
         return this.tid;
     }
 
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -348,6 +392,52 @@ public class HeapPage implements Page {
 
     }
 
+    /**
+     * Append the tuples in used slots from slot onwards to batch as rows,
+     * until the batch is full.  Slots that were not decoded yet are read
+     * from the raw bytes straight into the columns, without building
+     * Tuples.
+     *
+     * @return the slot to continue from, or the number of slots if every
+     *   tuple from slot onwards was added
+     */
+    public int readColumns(ColumnBatch batch, int slot) {
+        int n = td.numFields();
+        int[] offsets = new int[n];
+        for (int j = 1; j < n; j++) {
+            offsets[j] = offsets[j - 1] + td.getFieldType(j - 1).getLen();
+        }
+        int row = batch.size();
+        synchronized (tuples) {
+            ByteBuffer buf = raw.duplicate();
+            for (; slot < numSlots && row < batch.capacity(); slot++) {
+                if (!isSlotUsed(slot)) {
+                    continue;
+                }
+                Tuple t = tuples[slot];
+                int base = header.length + slot * td.getSize();
+                for (int j = 0; j < n; j++) {
+                    if (td.getFieldType(j) == Type.INT_TYPE) {
+                        batch.ints(j)[row] = t != null ? ((IntField) t.getField(j)).getValue()
+                                : buf.getInt(base + offsets[j]);
+                    } else {
+                        String s;
+                        if (t != null) {
+                            s = ((StringField) t.getField(j)).getValue();
+                        } else {
+                            buf.position(base + offsets[j]);
+                            s = ((StringField) Type.STRING_TYPE.parse(buf)).getValue();
+                        }
+                        batch.strings(j)[row] = s;
+                    }
+                }
+                row++;
+            }
+        }
+        batch.setSize(row);
+        return slot;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -365,7 +455,10 @@ public class HeapPage implements Page {
             }
             @Override
             public Tuple next() {
-                return tuples[idx++];
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return tupleAt(idx++);
             }
         };
     }
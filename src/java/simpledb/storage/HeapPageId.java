@@ -33,6 +33,10 @@ public class HeapPageId implements PageId {
         return pgNo;
     }
 
+    public int pageType() {
+        return PageRegistry.HEAP;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
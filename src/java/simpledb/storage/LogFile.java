@@ -2,12 +2,20 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.common.Log2Histogram;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -36,6 +44,16 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Group commit: </u>
+<p>
+
+A committing transaction appends its COMMIT record under the log's lock
+but waits for the force outside it.  A single flusher thread, shared by
+all log files, forces the log once for every commit that was appended
+since the previous force, so concurrent commits share one fsync.  The
+flusher can be told to wait a little for more commits to arrive before
+forcing; see {@link #setGroupCommitDelay}.
 */
 
 /**
@@ -43,11 +61,20 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log is a stream of bytes split into fixed-size segment files,
+see {@link LogSegments}.  Offsets in the log are positions in that
+stream, which stay the same when old segments are deleted.  The log file
+itself is a manifest holding the offset of the last written checkpoint,
+or -1 if there are no checkpoints, and the offset of the first record
+still kept.
+
+<li> Records are serialized into an in-memory log buffer and reach the
+segments only when the buffer fills up or the log is forced, so the tail
+of the log may not be on disk yet.  Anything that reads the log must
+{@link #flushBuffer} first.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> All data in the log consists of log records.  Log records are
+variable length.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
@@ -55,8 +82,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -65,18 +92,34 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> A serialized Page starts with its page id: a byte tagging the kind
+of page (see {@link PageRegistry}), the integer table id and the integer
+page number.  The page length and the page data follow.
+
+<li>DELTA RECORDS describe the same change as an UPDATE record but only
+log the byte ranges of the page that changed.  They consist of the page
+id as in a serialized Page, the page length, and a
+{@link PageDelta}.  logWrite() uses them whenever the delta is small
+compared to the page, which is the case for tuple inserts and deletes;
+changes that rewrite most of a page, like B+ tree splits and merges,
+keep logging full images.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  It is followed by the long integer offset
+from which recovery must redo the log, and the dirty page table: an
+integer count of pages, and for each page its id (serialized as in a
+Page) and the long integer offset of the first record that may not have
+reached the disk.
 
 </ul>
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,8 +127,12 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
+    /** Size of one log segment file, 16MB. */
+    public static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
@@ -95,6 +142,70 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // the dirty page table: pages whose logged changes may not be on disk
+    // yet, and the offset of the first such record; protected by this
+    private final Map<PageId,Long> dirtyPages = new HashMap<>();
+
+    // everything before this offset is on disk, protected by this
+    private long forcedEnd = 0;
+
+    /** Size of the in-memory buffer records are appended to. */
+    static final int LOG_BUFFER_BYTES = 256 * 1024;
+
+    // records not yet written to the file, starting at file offset
+    // bufferStart; both protected by this
+    private final ByteBuffer logBuffer = ByteBuffer.allocateDirect(LOG_BUFFER_BYTES);
+    private long bufferStart = 0;
+    // appends records to logBuffer, protected by this
+    private final DataOutputStream out = new DataOutputStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            if (!logBuffer.hasRemaining()) {
+                flushBuffer();
+            }
+            logBuffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!logBuffer.hasRemaining()) {
+                    flushBuffer();
+                }
+                int n = Math.min(len, logBuffer.remaining());
+                logBuffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    });
+
+    /** Default for {@link #setGroupCommitDelay}: force as soon as the flusher is free. */
+    public static final long DEFAULT_GROUP_COMMIT_DELAY_MICROS = 0;
+
+    // shared by every LogFile instance, created on first use
+    private static ExecutorService flusher;
+
+    private static synchronized ExecutorService flusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "simpledb-log-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return flusher;
+    }
+
+    private volatile long groupCommitDelayMicros = DEFAULT_GROUP_COMMIT_DELAY_MICROS;
+    // commits appended but not yet forced, protected by this
+    private List<CompletableFuture<Void>> pendingCommits = new ArrayList<>();
+    private boolean flushScheduled = false; // protected by this
+    private final Log2Histogram commitBatchSizes = new Log2Histogram();
+    private final Log2Histogram commitLatencyMicros = new Log2Histogram();
+
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -107,8 +218,16 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /** Constructor.
+        @param f The log file's name, the name of the manifest
+        @param segmentBytes The size of the segment files of a new log
+    */
+    public LogFile(File f, long segmentBytes) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentBytes);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -129,14 +248,37 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.reset();
+            logBuffer.clear();
+            bufferStart = segments.end();
+            currentOffset = logEnd();
         }
     }
 
+    /** @return the offset at which the next appended byte will be */
+    private long logEnd() {
+        return bufferStart + logBuffer.position();
+    }
+
+    /** Write the log buffer to the segments, without forcing it. */
+    synchronized void flushBuffer() throws IOException {
+        logBuffer.flip();
+        int n = logBuffer.remaining();
+        segments.append(bufferStart, logBuffer);
+        bufferStart += n;
+        logBuffer.clear();
+    }
+
+    /** @return the number of bytes the log occupies on disk */
+    public long getSize() {
+        return segments.size();
+    }
+
+    /** @return the number of segment files the log occupies */
+    public int getNumSegments() {
+        return segments.numSegments();
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -160,10 +302,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = logEnd();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -171,121 +313,196 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The force is shared with other
+        transactions committing at the same time.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long start = System.nanoTime();
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = logEnd();
+            tidToFirstLogRecord.remove(tid.getId());
+
+            pendingCommits.add(durable);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                flusher().execute(this::flushCommits);
+            }
+        }
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            throw new IOException("could not force commit of " + tid.getId(), e.getCause());
+        }
+        commitLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Runs on the flusher thread: force the log for all pending commits. */
+    private void flushCommits() {
+        List<CompletableFuture<Void>> batch;
+        synchronized (this) {
+            long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(groupCommitDelayMicros);
+            long left;
+            while ((left = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            batch = pendingCommits;
+            pendingCommits = new ArrayList<>();
+        }
+        commitBatchSizes.record(batch.size());
+        try {
+            force();
+            for (CompletableFuture<Void> f : batch) {
+                f.complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (CompletableFuture<Void> f : batch) {
+                f.completeExceptionally(e);
+            }
+        }
+        synchronized (this) {
+            if (pendingCommits.isEmpty()) {
+                flushScheduled = false;
+            } else {
+                flusher().execute(this::flushCommits);
+            }
+        }
+    }
+
+    /**
+     * Set how long the flusher waits for more commits after the first one
+     * of a batch arrives. Longer delays make bigger batches and fewer
+     * forces, at the cost of commit latency.
+     */
+    public void setGroupCommitDelay(long micros) {
+        groupCommitDelayMicros = Math.max(micros, 0);
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+    public long getGroupCommitDelay() {
+        return groupCommitDelayMicros;
+    }
+
+    /** @return the number of commits made durable by each force */
+    public Log2Histogram getCommitBatchSizes() {
+        return commitBatchSizes;
+    }
+
+    /** @return the time logCommit took, in microseconds */
+    public Log2Histogram getCommitLatencies() {
+        return commitLatencyMicros;
+    }
+
+    /** Write an UPDATE or DELTA record to disk for the specified tid
+        and page (with provided         before and after images.)
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the offset of the record, which becomes the page's LSN
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        Debug.log("WRITE, offset = " + logEnd());
+        long lsn = currentOffset;
+        byte[] beforeData = before.getPageData();
+        byte[] afterData = after.getPageData();
+        PageDelta delta = beforeData.length == afterData.length
+                ? PageDelta.between(beforeData, afterData) : null;
+
+        if (delta != null && delta.serializedSize() <= afterData.length / 2) {
+            /* delta record consists of
+
+               record type
+               transaction id
+               page id (see writePageId)
+               page length
+               delta
+               start offset
+            */
+            out.writeInt(DELTA_RECORD);
+            out.writeLong(tid.getId());
+            writePageId(out, after.getId());
+            out.writeInt(afterData.length);
+            delta.write(out);
+        } else {
+            /* update record conists of
+
+               record type
+               transaction id
+               before page data (see writePageData)
+               after page data
+               start offset
+            */
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            writePageData(out, before, beforeData);
+            writePageData(out, after, afterData);
+        }
+        out.writeLong(currentOffset);
+        dirtyPages.putIfAbsent(after.getId(), currentOffset);
+        currentOffset = logEnd();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
+    void writePageData(DataOutput out, Page p) throws IOException{
+        writePageData(out, p, p.getPageData());
+    }
 
+    private void writePageData(DataOutput out, Page p, byte[] pageData) throws IOException {
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        // page id (see writePageId)
+        // page length
+        // page data
+
+        writePageId(out, p.getId());
+        out.writeInt(pageData.length);
+        out.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    /** Write pid as its page type tag, table id and page number. */
+    private void writePageId(DataOutput out, PageId pid) throws IOException {
+        out.writeByte(pid.pageType());
+        out.writeInt(pid.getTableId());
+        out.writeInt(pid.getPageNumber());
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    Page readPageData(DataInput in) throws IOException {
+        PageId pid = readPageId(in);
+        int pageSize = in.readInt();
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        byte[] pageData = new byte[pageSize];
+        in.readFully(pageData); //read before image
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
+        //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
+        return PageRegistry.newPage(pid, pageData);
+    }
 
+    /** Read a page id written by writePageId. */
+    private PageId readPageId(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        int tableId = in.readInt();
+        int pageNumber = in.readInt();
+        return PageRegistry.newId(tag, tableId, pageNumber);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -300,150 +517,162 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = logEnd();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
-    public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+    /** Checkpoint the log and write a checkpoint record.
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
-            }
+        The checkpoint is fuzzy: it notes the active transactions and the
+        dirty page table, then writes those pages back one at a time while
+        other transactions keep running, and only then writes the
+        checkpoint record.  Neither the BufferPool nor the log is locked
+        for more than one page or one record at a time.  The record holds
+        the pages that could not be written, and a redo start point from
+        which recovery must replay the log.
+    */
+    public void logCheckpoint() throws IOException {
+        long begin;
+        Map<Long,Long> activeTxns;
+        Map<PageId,Long> dirty;
+        synchronized (this) {
+            preAppend();
+            begin = logEnd();
+            activeTxns = new HashMap<>(tidToFirstLogRecord);
+            dirty = new HashMap<>(dirtyPages);
         }
 
-        logTruncate();
-    }
-
-    /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
+        BufferPool bp = Database.getBufferPool();
+        for (PageId pid : dirty.keySet()) {
+            bp.flushForCheckpoint(pid);
+        }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            // a page written meanwhile no longer needs the records logged
+            // before begin; if it was logged again, the new records are
+            // after begin anyway
+            Map<PageId,Long> stillDirty = new HashMap<>();
+            long redoStart = begin;
+            for (Map.Entry<PageId,Long> e : dirty.entrySet()) {
+                if (e.getValue().equals(dirtyPages.get(e.getKey()))) {
+                    stillDirty.put(e.getKey(), e.getValue());
+                    redoStart = Math.min(redoStart, e.getValue());
                 }
             }
+
+            long startCpOffset = logEnd();
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+            writeCheckpoint(out, new Checkpoint(activeTxns, redoStart, stillDirty));
+            out.writeLong(currentOffset);
+            currentOffset = logEnd();
+            force();
+
+            //once the CP is written, make sure the CP location in the
+            // manifest is updated
+            segments.setCheckpoint(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        logTruncate();
+    }
 
-        raf.seek(minLogRecord);
+    /** The contents of a CHECKPOINT record. */
+    static class Checkpoint {
+        // first log record of each transaction active at the checkpoint
+        final Map<Long,Long> activeTxns;
+        // offset from which recovery must redo the log
+        final long redoStart;
+        // pages whose logged changes may not be on disk, and the first
+        // log record that may be missing from each
+        final Map<PageId,Long> dirtyPages;
+
+        Checkpoint(Map<Long,Long> activeTxns, long redoStart, Map<PageId,Long> dirtyPages) {
+            this.activeTxns = activeTxns;
+            this.redoStart = redoStart;
+            this.dirtyPages = dirtyPages;
+        }
+    }
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+    private void writeCheckpoint(DataOutput out, Checkpoint cp) throws IOException {
+        //write list of outstanding transactions
+        out.writeInt(cp.activeTxns.size());
+        for (Map.Entry<Long,Long> e : cp.activeTxns.entrySet()) {
+            Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+            out.writeLong(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeLong(cp.redoStart);
+        out.writeInt(cp.dirtyPages.size());
+        for (Map.Entry<PageId,Long> e : cp.dirtyPages.entrySet()) {
+            writePageId(out, e.getKey());
+            out.writeLong(e.getValue());
+        }
+    }
 
-                Debug.log("NEW START = " + newStart);
+    Checkpoint readCheckpoint(DataInput in) throws IOException {
+        Map<Long,Long> activeTxns = new HashMap<>();
+        int numXactions = in.readInt();
+        while (numXactions-- > 0) {
+            long tid = in.readLong();
+            activeTxns.put(tid, in.readLong());
+        }
+        long redoStart = in.readLong();
+        Map<PageId,Long> dirty = new HashMap<>();
+        int numDirty = in.readInt();
+        while (numDirty-- > 0) {
+            PageId pid = readPageId(in);
+            dirty.put(pid, in.readLong());
+        }
+        return new Checkpoint(activeTxns, redoStart, dirty);
+    }
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+    /** Note that a page was written to disk, so none of its logged
+        changes have to be redone.  Called by the BufferPool, which
+        serializes logging and writing a page. */
+    synchronized void pageWritten(PageId pid) {
+        dirtyPages.remove(pid);
+    }
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+    /** Truncate any unneeded portion of the log to reduce its space
+        consumption.  Only whole segments before the oldest record
+        recovery may still need are deleted, so no record is copied and
+        all offsets stay valid. */
+    public synchronized void logTruncate() throws IOException {
+        preAppend();
+        flushBuffer();
+        long cpLoc = segments.checkpoint();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
+        DataInput in = segments.reader(cpLoc);
+        int cpType = in.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = in.readLong();
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
-            } catch (EOFException e) {
-                break;
+        Checkpoint cp = readCheckpoint(in);
+        long minLogRecord = Math.min(cpLoc, cp.redoStart);
+        for (long firstLogRecord : cp.activeTxns.values()) {
+            if (firstLogRecord < minLogRecord) {
+                minLogRecord = firstLogRecord;
             }
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        // we can drop everything before minLogRecord
+        int deleted = segments.truncate(minLogRecord);
+        Debug.log("TRUNCATING LOG;  NEW START : " + minLogRecord + " DELETED SEGMENTS: " + deleted);
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -459,11 +688,140 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                flushBuffer();
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null) {
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
+                }
+
+                // undo the transaction's changes from the latest to the
+                // earliest, then install each page's oldest image once
+                List<PageChange> changes = readChanges(tid.getId(), firstRecord);
+                Map<PageId, byte[]> images = new HashMap<>();
+                for (int i = changes.size() - 1; i >= 0; i--) {
+                    PageChange c = changes.get(i);
+                    byte[] image = images.get(c.pid);
+                    if (image == null && c.delta != null) {
+                        image = loggedImage(c.pid, c.pageSize);
+                    }
+                    images.put(c.pid, c.undo(image));
+                }
+                for (Map.Entry<PageId, byte[]> e : images.entrySet()) {
+                    PageId pid = e.getKey();
+                    installImage(pid, e.getValue());
+                    Database.getBufferPool().discardPage(pid);
+                }
+            }
+        }
+    }
+
+    /** A page change read back from an UPDATE or DELTA record. */
+    private static class PageChange {
+        final PageId pid;
+        final int pageSize;
+        // the full images, or null if the change is a delta
+        final byte[] before;
+        final byte[] after;
+        final PageDelta delta;
+
+        PageChange(PageId pid, int pageSize, byte[] before, byte[] after, PageDelta delta) {
+            this.pid = pid;
+            this.pageSize = pageSize;
+            this.before = before;
+            this.after = after;
+            this.delta = delta;
+        }
+
+        /** @return image with the change applied; image may be null if the change has full images */
+        byte[] redo(byte[] image) {
+            if (delta == null) {
+                return after.clone();
+            }
+            delta.redo(image);
+            return image;
+        }
+
+        /** @return image with the change undone; image may be null if the change has full images */
+        byte[] undo(byte[] image) {
+            if (delta == null) {
+                return before.clone();
             }
+            delta.undo(image);
+            return image;
         }
     }
 
+    /** Read the rest of an UPDATE or DELTA record, following its type and
+        transaction id. */
+    private PageChange readChange(DataInput in, int type) throws IOException {
+        PageId pid = readPageId(in);
+        int pageSize = in.readInt();
+        if (type == DELTA_RECORD) {
+            return new PageChange(pid, pageSize, null, null, PageDelta.read(in));
+        }
+        byte[] before = new byte[pageSize];
+        in.readFully(before);
+        readPageId(in);
+        byte[] after = new byte[in.readInt()];
+        in.readFully(after);
+        return new PageChange(pid, pageSize, before, after, null);
+    }
+
+    /** Read the page changes logged by tid, in log order, starting with
+        the record at offset start.  The log buffer must be flushed. */
+    private List<PageChange> readChanges(long tid, long start) throws IOException {
+        List<PageChange> changes = new ArrayList<>();
+        LogSegments.Reader in = segments.reader(start);
+        long end = segments.end();
+        while (in.position() < end) {
+            int type = in.readInt();
+            long recordTid = in.readLong();
+            switch (type) {
+            case UPDATE_RECORD:
+            case DELTA_RECORD:
+                PageChange c = readChange(in, type);
+                if (recordTid == tid) {
+                    changes.add(c);
+                }
+                break;
+            case CHECKPOINT_RECORD:
+                readCheckpoint(in);
+                break;
+            }
+            in.readLong();
+        }
+        return changes;
+    }
+
+    /** @return the image of pid on disk, or zeroes if the file does not
+        reach that page yet */
+    private byte[] readImage(PageId pid, int pageSize) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        try {
+            return file.readPage(pid).getPageData();
+        } catch (IllegalArgumentException e) {
+            return new byte[pageSize];
+        }
+    }
+
+    /** @return the image of pid as of its last log record: the before
+        image of the resident page, which the buffer pool advances every
+        time it logs the page, or else the image on disk.  Under NO-FORCE
+        the disk may be missing committed changes, so the disk is only
+        used when the page was written as it left the pool. */
+    private byte[] loggedImage(PageId pid, int pageSize) {
+        Page page = Database.getBufferPool().peekPage(pid);
+        if (page != null) {
+            return page.getBeforeImage().getPageData();
+        }
+        return readImage(pid, pageSize);
+    }
+
+    private void installImage(PageId pid, byte[] image) throws IOException {
+        Page page = PageRegistry.newPage(pid, image);
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -471,78 +829,307 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            flushBuffer();
+            segments.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
         }
     }
 
+    /** Set the number of threads recover() replays pages with.  Pages
+        are independent of each other during replay, so they are split
+        among the threads by page id.
+        @param threads the number of threads, at least 1
+    */
+    public void setRecoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one recovery thread");
+        }
+        recoveryThreads = threads;
+    }
+
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    /** An UPDATE or DELTA record found by the analysis pass. */
+    private static class PageRecord {
+        final long offset;
+        final long tid;
+        final boolean fullImage;
+
+        PageRecord(long offset, long tid, boolean fullImage) {
+            this.offset = offset;
+            this.tid = tid;
+            this.fullImage = fullImage;
+        }
+    }
+
+    /** What the analysis pass of recover() learns from the log. */
+    private static class Analysis {
+        final Set<Long> seen = new HashSet<>();
+        final Set<Long> committed = new HashSet<>();
+        // committed or aborted; aborted transactions were rolled back
+        // before their ABORT record was written
+        final Set<Long> ended = new HashSet<>();
+        // the UPDATE and DELTA records of every page, in log order
+        final Map<PageId, List<PageRecord>> pages = new HashMap<>();
+        long redoStart;
+        // the offset just past the last complete record
+        long end;
+
+        Set<Long> losers() {
+            Set<Long> losers = new HashSet<>(seen);
+            losers.removeAll(ended);
+            return losers;
+        }
+    }
+
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery first scans the log once to find the outcome of every
+        transaction and the records of every page.  The pages are then
+        replayed in parallel (see {@link #setRecoveryThreads}): each page
+        gets the changes of committed transactions since the last
+        checkpoint's redo start, in log order, and then has the changes
+        of unfinished transactions undone, newest first.  Finally every
+        unfinished transaction gets an ABORT record.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                segments.load();
+                Analysis analysis = analyze();
+                // a crash may have left part of a record at the end
+                segments.truncateTail(analysis.end);
+                logBuffer.clear();
+                bufferStart = segments.end();
+                currentOffset = logEnd();
+                forcedEnd = bufferStart;
+                tidToFirstLogRecord.clear();
+                dirtyPages.clear();
+
+                replay(analysis);
+                // the workers only wrote the disk, drop what the pool cached
+                for (PageId pid : analysis.pages.keySet()) {
+                    Database.getBufferPool().discardPage(pid);
+                }
+
+                for (long tid : analysis.losers()) {
+                    preAppend();
+                    out.writeInt(ABORT_RECORD);
+                    out.writeLong(tid);
+                    out.writeLong(currentOffset);
+                    currentOffset = logEnd();
+                }
+                force();
             }
          }
     }
 
+    private Analysis analyze() throws IOException {
+        Analysis a = new Analysis();
+        a.redoStart = segments.firstRecord();
+        a.end = a.redoStart;
+        LogSegments.Reader in = segments.reader(a.redoStart);
+        long end = segments.end();
+        try {
+            scan:
+            while (in.position() < end) {
+                long offset = in.position();
+                int type = in.readInt();
+                long tid = in.readLong();
+                switch (type) {
+                case BEGIN_RECORD:
+                    a.seen.add(tid);
+                    break;
+                case COMMIT_RECORD:
+                    a.committed.add(tid);
+                    a.ended.add(tid);
+                    break;
+                case ABORT_RECORD:
+                    a.ended.add(tid);
+                    break;
+                case UPDATE_RECORD:
+                case DELTA_RECORD:
+                    PageChange c = readChange(in, type);
+                    a.seen.add(tid);
+                    a.pages.computeIfAbsent(c.pid, k -> new ArrayList<>())
+                            .add(new PageRecord(offset, tid, c.delta == null));
+                    break;
+                case CHECKPOINT_RECORD:
+                    Checkpoint cp = readCheckpoint(in);
+                    a.seen.addAll(cp.activeTxns.keySet());
+                    a.redoStart = cp.redoStart;
+                    break;
+                default:
+                    break scan;
+                }
+                if (in.readLong() != offset) {
+                    break;
+                }
+                a.end = in.position();
+            }
+        } catch (EOFException e) {
+            // the last record is incomplete
+        }
+        return a;
+    }
+
+    private void replay(Analysis a) throws IOException {
+        if (a.pages.isEmpty()) {
+            return;
+        }
+        Set<Long> losers = a.losers();
+        int n = Math.min(recoveryThreads, a.pages.size());
+        List<List<PageId>> parts = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (PageId pid : a.pages.keySet()) {
+            parts.get(Math.floorMod(pid.hashCode(), n)).add(pid);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "simpledb-recovery");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Void>> done = new ArrayList<>();
+            for (List<PageId> part : parts) {
+                done.add(pool.submit(() -> {
+                    LogSegments.Reader in = segments.reader(a.redoStart);
+                    for (PageId pid : part) {
+                        replayPage(pid, a, losers, in);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> f : done) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during recovery");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void replayPage(PageId pid, Analysis a, Set<Long> losers, LogSegments.Reader in)
+        throws IOException {
+        // a full after image replaces everything committed before it
+        List<PageRecord> redo = new ArrayList<>();
+        List<PageRecord> undo = new ArrayList<>();
+        for (PageRecord r : a.pages.get(pid)) {
+            if (losers.contains(r.tid)) {
+                undo.add(r);
+            } else if (a.committed.contains(r.tid) && r.offset >= a.redoStart) {
+                if (r.fullImage) {
+                    redo.clear();
+                }
+                redo.add(r);
+            }
+        }
+        if (redo.isEmpty() && undo.isEmpty()) {
+            return;
+        }
+
+        byte[] image = null;
+        for (PageRecord r : redo) {
+            PageChange c = readChangeAt(in, r.offset);
+            if (image == null && c.delta != null) {
+                image = readImage(pid, c.pageSize);
+            }
+            image = c.redo(image);
+        }
+        for (int i = undo.size() - 1; i >= 0; i--) {
+            PageChange c = readChangeAt(in, undo.get(i).offset);
+            if (image == null && c.delta != null) {
+                image = readImage(pid, c.pageSize);
+            }
+            image = c.undo(image);
+        }
+        installImage(pid, image);
+    }
+
+    private PageChange readChangeAt(LogSegments.Reader in, long offset) throws IOException {
+        in.seek(offset);
+        int type = in.readInt();
+        in.readLong();
+        return readChange(in, type);
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
-
-        raf.seek(0);
+        flushBuffer();
+        LogSegments.Reader in = segments.reader(segments.firstRecord());
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        System.out.println("checkpoint record at offset " + segments.checkpoint());
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                int cpType = in.readInt();
+                long cpTid = in.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((in.position() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((in.position() - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                    int numTransactions = in.readInt();
+                    System.out.println((in.position() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        long tid = in.readLong();
+                        long firstRecord = in.readLong();
+                        System.out.println((in.position() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                        System.out.println((in.position() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.position() + ": REDO START: " + in.readLong());
+                    int numDirty = in.readInt();
+                    System.out.println((in.position() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+                    while (numDirty-- > 0) {
+                        long dirtyStart = in.position();
+                        PageId dirtyPid = readPageId(in);
+                        System.out.println(dirtyStart + ": DIRTY PAGE: table id " + dirtyPid.getTableId()
+                                + ", page number " + dirtyPid.getPageNumber() + ", first record " + in.readLong());
+                    }
+                    System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
+                    long start = in.position();
+                    Page before = readPageData(in);
 
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                    long middle = in.position();
+                    Page after = readPageData(in);
 
                     System.out.println(start + ": before image table id " + before.getId().getTableId());
                     System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
@@ -550,9 +1137,25 @@ public class LogFile {
 
                     System.out.println(middle + ": after image table id " + after.getId().getTableId());
                     System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    System.out.println((middle + INT_SIZE) + " TO " + (in.position()) + ": page data");
 
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
+
+                    break;
+                case DELTA_RECORD:
+                    System.out.println(" (DELTA)");
+
+                    long deltaStart = in.position();
+                    PageId pid = readPageId(in);
+                    int pageSize = in.readInt();
+                    long rangesStart = in.position();
+                    PageDelta delta = PageDelta.read(in);
+
+                    System.out.println(deltaStart + ": table id " + pid.getTableId() + ", page number " + pid.getPageNumber());
+                    System.out.println(rangesStart + " TO " + in.position() + ": " + delta.numRanges()
+                            + " changed ranges of the " + pageSize + " byte page");
+
+                    System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 }
@@ -562,13 +1165,37 @@ public class LogFile {
                 break;
             }
         }
+    }
+
+    /** Force everything appended so far to disk.  The log is not
+        locked during the force, so other records can be appended. */
+    public void force() throws IOException {
+        synchronized (this) {
+            flushBuffer();
+        }
+        // covers at least what was flushed above, and is only reached
+        // once no force that could have taken those bytes is in flight
+        long forced = segments.force();
+        synchronized (this) {
+            forcedEnd = Math.max(forcedEnd, forced);
+        }
+    }
 
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
+    /** Force the log at least through the record at offset lsn; does
+        nothing if an earlier force already covered it.  This is what
+        the buffer pool calls before writing a page whose LSN is lsn. */
+    public void force(long lsn) throws IOException {
+        synchronized (this) {
+            if (lsn < forcedEnd) {
+                return;
+            }
+        }
+        force();
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** @return whether the record at offset lsn is known to be on disk */
+    boolean isForced(long lsn) {
+        return lsn < segments.forcedEnd();
     }
 
 }
@@ -0,0 +1,383 @@
+package simpledb.storage;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * LogSegments stores the bytes of the log in a sequence of fixed-size
+ * segment files, so that dropping the head of the log is a matter of
+ * deleting whole files rather than copying what is left.
+ * <p>
+ * Positions in the log (LSNs) are logical byte offsets that never change:
+ * the byte at LSN n lives in segment n / segmentBytes, at offset
+ * n % segmentBytes of that segment's file. Segment files are named after
+ * the log file followed by the segment number, for example log.00000003.
+ * <p>
+ * The log file itself is a small manifest holding the segment size, the
+ * LSN of the last checkpoint record, and the LSN of the first record that
+ * is still needed. The manifest is replaced atomically whenever it
+ * changes.
+ *
+ * @Threadsafe
+ */
+class LogSegments {
+    private static final int MANIFEST_BYTES = 3 * 8;
+    private static final int READ_CHUNK = 64 * 1024;
+
+    private final File manifest;
+    private long segmentBytes;
+    private long checkpoint = LogFile.NO_CHECKPOINT_ID;
+    private long firstRecord = 0;
+    private long end = 0;
+
+    // open segment files by segment number
+    private final TreeMap<Long, FileChannel> channels = new TreeMap<>();
+    // segments written since they were last forced
+    private final List<Long> unforced = new ArrayList<>();
+    // everything before this LSN is on disk
+    private long forced = 0;
+    // held for the whole of a force, so a force that finds nothing left to
+    // do only returns once the force in flight has finished
+    private final Object forceLock = new Object();
+
+    LogSegments(File manifest, long segmentBytes) {
+        this.manifest = manifest;
+        this.segmentBytes = segmentBytes;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(manifest.getPath() + String.format(".%08d", segment));
+    }
+
+    private FileChannel channel(long segment) throws IOException {
+        FileChannel ch = channels.get(segment);
+        if (ch == null || !ch.isOpen()) {
+            ch = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            channels.put(segment, ch);
+        }
+        return ch;
+    }
+
+    /** Throw away the whole log and start an empty one. */
+    synchronized void reset() throws IOException {
+        closeChannels();
+        File dir = manifest.getAbsoluteFile().getParentFile();
+        String prefix = manifest.getName() + ".";
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix)
+                && name.length() > prefix.length()
+                && name.substring(prefix.length()).chars().allMatch(Character::isDigit));
+        if (files != null) {
+            for (File f : files) {
+                Files.delete(f.toPath());
+            }
+        }
+        checkpoint = LogFile.NO_CHECKPOINT_ID;
+        firstRecord = 0;
+        end = 0;
+        forced = 0;
+        writeManifest();
+    }
+
+    /** Open the log left on disk, for recovery. A missing manifest means an empty log. */
+    synchronized void load() throws IOException {
+        closeChannels();
+        checkpoint = LogFile.NO_CHECKPOINT_ID;
+        firstRecord = 0;
+        end = 0;
+        if (!manifest.exists() || manifest.length() == 0) {
+            return;
+        }
+        if (manifest.length() != MANIFEST_BYTES) {
+            throw new IOException(manifest + " is not a log manifest");
+        }
+        try (RandomAccessFile in = new RandomAccessFile(manifest, "r")) {
+            segmentBytes = in.readLong();
+            checkpoint = in.readLong();
+            firstRecord = in.readLong();
+        }
+        end = firstRecord;
+        for (long s = firstRecord / segmentBytes; segmentFile(s).exists(); s++) {
+            end = s * segmentBytes + segmentFile(s).length();
+        }
+        forced = end;
+    }
+
+    private void writeManifest() throws IOException {
+        File tmp = new File(manifest.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            out.writeLong(segmentBytes);
+            out.writeLong(checkpoint);
+            out.writeLong(firstRecord);
+            out.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), manifest.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** @return the LSN just past the last byte written */
+    synchronized long end() {
+        return end;
+    }
+
+    /** @return the LSN up to which the log is known to be on disk */
+    synchronized long forcedEnd() {
+        return forced;
+    }
+
+    /** @return the LSN of the oldest record still kept */
+    synchronized long firstRecord() {
+        return firstRecord;
+    }
+
+    /** @return the LSN of the last checkpoint record, or NO_CHECKPOINT_ID */
+    synchronized long checkpoint() {
+        return checkpoint;
+    }
+
+    synchronized void setCheckpoint(long lsn) throws IOException {
+        checkpoint = lsn;
+        writeManifest();
+    }
+
+    /** Write the remaining bytes of buf at lsn, which must be the current end. */
+    synchronized void append(long lsn, ByteBuffer buf) throws IOException {
+        if (lsn != end) {
+            throw new IllegalArgumentException("append at " + lsn + " but the log ends at " + end);
+        }
+        while (buf.hasRemaining()) {
+            long segment = end / segmentBytes;
+            long offset = end % segmentBytes;
+            int n = (int) Math.min(buf.remaining(), segmentBytes - offset);
+            ByteBuffer part = buf.duplicate();
+            part.limit(part.position() + n);
+            FileChannel ch = channel(segment);
+            while (part.hasRemaining()) {
+                offset += ch.write(part, offset);
+            }
+            buf.position(buf.position() + n);
+            end += n;
+            if (unforced.isEmpty() || unforced.get(unforced.size() - 1) != segment) {
+                unforced.add(segment);
+            }
+        }
+    }
+
+    /**
+     * Force everything appended so far to disk. Does not lock the log
+     * segments during the force itself, so appends can go on meanwhile,
+     * but forces run one at a time: a segment taken off the unforced list
+     * by another force is only on disk once that force returns.
+     *
+     * @return the LSN up to which the log is now on disk
+     */
+    long force() throws IOException {
+        synchronized (forceLock) {
+            List<FileChannel> toForce = new ArrayList<>();
+            long through;
+            synchronized (this) {
+                for (long segment : unforced) {
+                    toForce.add(channel(segment));
+                }
+                unforced.clear();
+                through = end;
+            }
+            for (FileChannel ch : toForce) {
+                try {
+                    ch.force(true);
+                } catch (ClosedChannelException e) {
+                    // the segment was truncated away or the log reset meanwhile,
+                    // so its contents are no longer needed
+                }
+            }
+            synchronized (this) {
+                forced = Math.max(forced, Math.min(through, end));
+                return forced;
+            }
+        }
+    }
+
+    /**
+     * Drop every segment that only holds bytes before lsn, which becomes
+     * the first record of the log.
+     *
+     * @return the number of segments deleted
+     */
+    synchronized int truncate(long lsn) throws IOException {
+        if (lsn <= firstRecord) {
+            return 0;
+        }
+        long oldFirstSegment = firstRecord / segmentBytes;
+        firstRecord = lsn;
+        // record the new start before any segment disappears
+        writeManifest();
+        int deleted = 0;
+        for (long s = oldFirstSegment; s < lsn / segmentBytes; s++) {
+            FileChannel ch = channels.remove(s);
+            if (ch != null) {
+                ch.close();
+            }
+            unforced.remove(s);
+            Files.deleteIfExists(segmentFile(s).toPath());
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Drop everything from lsn on, such as a record that was only partly
+     * written when the database crashed.
+     */
+    synchronized void truncateTail(long lsn) throws IOException {
+        if (lsn >= end) {
+            return;
+        }
+        long last = (end - 1) / segmentBytes;
+        long segment = lsn / segmentBytes;
+        channel(segment).truncate(lsn % segmentBytes);
+        for (long s = segment + 1; s <= last; s++) {
+            FileChannel ch = channels.remove(s);
+            if (ch != null) {
+                ch.close();
+            }
+            unforced.remove(s);
+            Files.deleteIfExists(segmentFile(s).toPath());
+        }
+        end = lsn;
+        forced = Math.min(forced, end);
+    }
+
+    /** @return the number of bytes in the segment files still kept */
+    synchronized long size() {
+        return end - firstRecord / segmentBytes * segmentBytes;
+    }
+
+    /** @return the number of segment files the log currently spans */
+    synchronized int numSegments() {
+        if (end == firstRecord) {
+            return end % segmentBytes == 0 ? 0 : 1;
+        }
+        return (int) ((end - 1) / segmentBytes - firstRecord / segmentBytes + 1);
+    }
+
+    private void closeChannels() throws IOException {
+        for (FileChannel ch : channels.values()) {
+            ch.close();
+        }
+        channels.clear();
+        unforced.clear();
+    }
+
+    synchronized void close() throws IOException {
+        closeChannels();
+    }
+
+    /** @return a reader positioned at lsn */
+    Reader reader(long lsn) {
+        return new Reader(new SegmentStream(lsn));
+    }
+
+    /** Reads the log sequentially, across segment boundaries. */
+    class Reader extends DataInputStream {
+        private final SegmentStream stream;
+
+        private Reader(SegmentStream stream) {
+            super(stream);
+            this.stream = stream;
+        }
+
+        /** @return the LSN of the next byte to be read */
+        long position() {
+            return stream.pos;
+        }
+
+        /** Continue reading at lsn. */
+        void seek(long lsn) {
+            stream.pos = lsn;
+        }
+    }
+
+    private class SegmentStream extends InputStream {
+        private long pos;
+        // bytes of the log starting at LSN bufStart
+        private final ByteBuffer buf = ByteBuffer.allocate(READ_CHUNK);
+        private long bufStart;
+
+        SegmentStream(long pos) {
+            this.pos = pos;
+            this.bufStart = pos;
+            buf.limit(0);
+        }
+
+        // make the byte at pos available in buf
+        private boolean fill() throws IOException {
+            if (pos >= bufStart && pos < bufStart + buf.limit()) {
+                buf.position((int) (pos - bufStart));
+                return true;
+            }
+            FileChannel ch;
+            long offset;
+            synchronized (LogSegments.this) {
+                if (pos >= end) {
+                    return false;
+                }
+                offset = pos % segmentBytes;
+                buf.clear();
+                buf.limit((int) Math.min(READ_CHUNK, Math.min(segmentBytes - offset, end - pos)));
+                ch = channel(pos / segmentBytes);
+            }
+            // positional reads need no lock, so several readers can
+            // read the log at once
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
+            buf.flip();
+            bufStart = pos;
+            return buf.hasRemaining();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            pos++;
+            return buf.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            pos += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * LRU-2 replacement (O'Neil, O'Neil and Weikum).
+ * <p>
+ * Each frame remembers its last two access times. The victim is the frame
+ * whose second-to-last access is the oldest, and pages referenced only once
+ * count as infinitely old, so they go first. A page touched once by a scan
+ * is therefore dropped before a page that is used over and over. The access
+ * history of evicted pages is kept for a while, so a page that comes back
+ * soon is not treated as brand new.
+ */
+class LruKPolicy implements ReplacementPolicy {
+    private final AtomicLong clock = new AtomicLong(0);
+    private final List<PageTable.Frame> frames = new ArrayList<>();
+    private final Map<PageId, Long> history;
+
+    /** @param capacity the number of frames this policy manages */
+    LruKPolicy(int capacity) {
+        final int retained = Math.max(1, capacity);
+        this.history = new LinkedHashMap<PageId, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Long> eldest) {
+                return size() > retained;
+            }
+        };
+    }
+
+    @Override
+    public void admit(PageTable.Frame f) {
+        Long last = history.remove(f.pid);
+        f.prevAccess = last == null ? 0 : last;
+        f.lastAccess = clock.incrementAndGet();
+        f.slot = frames.size();
+        frames.add(f);
+    }
+
+    @Override
+    public void access(PageTable.Frame f) {
+        // racy without the shard lock, but a lost update only costs accuracy
+        f.prevAccess = f.lastAccess;
+        f.lastAccess = clock.incrementAndGet();
+    }
+
+    @Override
+    public void remove(PageTable.Frame f) {
+        int last = frames.size() - 1;
+        PageTable.Frame moved = frames.get(last);
+        frames.set(f.slot, moved);
+        moved.slot = f.slot;
+        frames.remove(last);
+        history.put(f.pid, f.lastAccess);
+    }
+
+    @Override
+    public PageTable.Frame victim(Predicate<PageTable.Frame> evictable) {
+        PageTable.Frame best = null;
+        for (PageTable.Frame f : frames) {
+            if (!evictable.test(f)) {
+                continue;
+            }
+            if (best == null || f.prevAccess < best.prevAccess
+                    || (f.prevAccess == best.prevAccess && f.lastAccess < best.lastAccess)) {
+                best = f;
+            }
+        }
+        return best;
+    }
+}
@@ -31,10 +31,22 @@ public interface Page {
     TransactionId isDirty();
 
   /**
-   * Set the dirty state of this page as dirtied by a particular transaction
+   * Set the dirty state of this page as dirtied by a particular transaction.
+   * Marking a page dirty also means it has changes that are not logged yet,
+   * so its LSN goes back to -1.
    */
   void markDirty(boolean dirty, TransactionId tid);
 
+    /**
+     * @return the page LSN: the offset of the log record holding this page's
+     *   latest changes, which the log must have forced before the page may
+     *   be written; -1 if the page has changes that are not logged yet
+     */
+    long getLsn();
+
+    /** Record that the changes of this page are logged up to lsn. */
+    void setLsn(long lsn);
+
   /**
    * Generates a byte array representing the contents of this page.
    * Used to serialize this page to disk.
@@ -0,0 +1,83 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PageCleaner periodically writes dirty pages of a BufferPool back to disk
+ * ahead of eviction, so that queries needing a free frame rarely have to
+ * wait for a write.
+ * <p>
+ * Every round asks the pool for a batch of dirty, unpinned pages it may
+ * write back; the pool writes them sorted by table and page number and
+ * coalesces adjacent pages. A pool only runs a cleaner under STEAL/NO-FORCE,
+ * since under NO-STEAL no dirty page may be written before its commit.
+ * All pools share one daemon thread, and a pool is only weakly referenced
+ * so that a discarded pool stops its cleaner.
+ *
+ * @Threadsafe
+ */
+class PageCleaner {
+    /** Pages written per round. */
+    static final int BATCH_PAGES = 32;
+    static final long INTERVAL_MILLIS = 100;
+
+    // shared by every BufferPool instance, created on first use
+    private static ScheduledExecutorService timer;
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "simpledb-page-cleaner");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return timer;
+    }
+
+    private final WeakReference<BufferPool> pool;
+    private volatile ScheduledFuture<?> task;
+
+    private PageCleaner(BufferPool pool) {
+        this.pool = new WeakReference<>(pool);
+    }
+
+    /** Start cleaning pool in the background. */
+    static PageCleaner start(BufferPool pool) {
+        PageCleaner cleaner = new PageCleaner(pool);
+        cleaner.task = timer().scheduleWithFixedDelay(cleaner::round,
+                INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return cleaner;
+    }
+
+    /** Stop cleaning; a round already running finishes. */
+    void stop() {
+        task.cancel(false);
+    }
+
+    private void round() {
+        BufferPool bp = pool.get();
+        if (bp == null) {
+            task.cancel(false);
+            return;
+        }
+        if (bp != Database.getBufferPool()) {
+            // a pool replaced by Database.reset() must not write into the
+            // log and files of its successor
+            return;
+        }
+        try {
+            bp.cleanPages(BATCH_PAGES);
+        } catch (IOException e) {
+            // the pages stay dirty and are written at commit or eviction
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PageDelta is the difference between two images of the same page, kept
+ * as the byte ranges that changed together with their old and new
+ * contents. It lets the log record an update to one tuple as the slot and
+ * header bytes it touched instead of two whole pages.
+ * <p>
+ * Applying the new contents ({@link #redo}) or the old contents
+ * ({@link #undo}) overwrites the ranges with fixed bytes, so both are
+ * idempotent and can be repeated safely during recovery.
+ *
+ * @Immutable
+ */
+class PageDelta {
+    // changed bytes closer than this are kept in one range, since every
+    // range costs 8 bytes of offset and length
+    private static final int MERGE_GAP = 8;
+
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(int[] offsets, byte[][] before, byte[][] after) {
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /** @return the ranges in which after differs from before, which must have the same length */
+    static PageDelta between(byte[] before, byte[] after) {
+        if (before.length != after.length) {
+            throw new IllegalArgumentException("page images differ in length");
+        }
+        List<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < before.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            int k = end;
+            while (k < before.length && k - end < MERGE_GAP) {
+                if (before[k] != after[k]) {
+                    end = k + 1;
+                }
+                k++;
+            }
+            ranges.add(new int[] { start, end });
+            i = k;
+        }
+        int n = ranges.size();
+        int[] offsets = new int[n];
+        byte[][] oldBytes = new byte[n][];
+        byte[][] newBytes = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            int start = ranges.get(r)[0];
+            int len = ranges.get(r)[1] - start;
+            offsets[r] = start;
+            oldBytes[r] = new byte[len];
+            newBytes[r] = new byte[len];
+            System.arraycopy(before, start, oldBytes[r], 0, len);
+            System.arraycopy(after, start, newBytes[r], 0, len);
+        }
+        return new PageDelta(offsets, oldBytes, newBytes);
+    }
+
+    int numRanges() {
+        return offsets.length;
+    }
+
+    /** @return the number of bytes {@link #write} produces */
+    int serializedSize() {
+        int size = 4;
+        for (byte[] b : before) {
+            size += 8 + 2 * b.length;
+        }
+        return size;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(before[r].length);
+            out.write(before[r]);
+            out.write(after[r]);
+        }
+    }
+
+    static PageDelta read(DataInput in) throws IOException {
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int len = in.readInt();
+            before[r] = new byte[len];
+            after[r] = new byte[len];
+            in.readFully(before[r]);
+            in.readFully(after[r]);
+        }
+        return new PageDelta(offsets, before, after);
+    }
+
+    /** Install the new contents of every range into page. */
+    void redo(byte[] page) {
+        apply(page, after);
+    }
+
+    /** Install the old contents of every range into page. */
+    void undo(byte[] page) {
+        apply(page, before);
+    }
+
+    private void apply(byte[] page, byte[][] contents) {
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(contents[r], 0, page, offsets[r], contents[r].length);
+        }
+    }
+}
@@ -32,5 +32,9 @@ public interface PageId {
     boolean equals(Object o);
 
     int getPageNumber();
+
+    /** @return the tag of the kind of page this id names, used for logging
+        (see {@link PageRegistry}) */
+    int pageType();
 }
 
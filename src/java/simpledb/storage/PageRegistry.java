@@ -0,0 +1,81 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageRegistry gives every kind of page a small integer tag and knows how
+ * to rebuild pages and page ids of each kind, so that the log can name a
+ * page's type in one byte and read it back without reflection.
+ * <p>
+ * The tag of a page is chosen by its id, see {@link PageId#pageType}.
+ * Heap pages are registered here; the B+ tree pages register themselves
+ * when BTreeFile is loaded.
+ *
+ * @Threadsafe
+ */
+public class PageRegistry {
+    public static final int HEAP = 1;
+    public static final int BTREE_ROOT_PTR = 2;
+    public static final int BTREE_INTERNAL = 3;
+    public static final int BTREE_LEAF = 4;
+    public static final int BTREE_HEADER = 5;
+
+    /** Builds the id of a page of one kind. */
+    public interface IdFactory {
+        PageId newId(int tableId, int pageNumber);
+    }
+
+    /** Builds a page of one kind from its id and its serialized contents. */
+    public interface PageFactory {
+        Page newPage(PageId pid, byte[] data) throws IOException;
+    }
+
+    private static class Entry {
+        final IdFactory ids;
+        final PageFactory pages;
+
+        Entry(IdFactory ids, PageFactory pages) {
+            this.ids = ids;
+            this.pages = pages;
+        }
+    }
+
+    private static final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    static {
+        register(HEAP, HeapPageId::new, (pid, data) -> new HeapPage((HeapPageId) pid, data));
+    }
+
+    /**
+     * Register the factories for the pages with the given tag, replacing
+     * any registered before.
+     *
+     * @param tag the tag, between 1 and 255
+     */
+    public static void register(int tag, IdFactory ids, PageFactory pages) {
+        if (tag < 1 || tag > 255) {
+            throw new IllegalArgumentException("page type tag " + tag + " does not fit in a byte");
+        }
+        entries.put(tag, new Entry(ids, pages));
+    }
+
+    private static Entry entry(int tag) throws IOException {
+        Entry e = entries.get(tag);
+        if (e == null) {
+            throw new IOException("no page type registered for tag " + tag);
+        }
+        return e;
+    }
+
+    /** @return the id of page pageNumber of table tableId, of the kind named by tag */
+    public static PageId newId(int tag, int tableId, int pageNumber) throws IOException {
+        return entry(tag).ids.newId(tableId, pageNumber);
+    }
+
+    /** @return the page with id pid and the given contents */
+    public static Page newPage(PageId pid, byte[] data) throws IOException {
+        return entry(pid.pageType()).pages.newPage(pid, data);
+    }
+}
@@ -0,0 +1,263 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * PageTable maps PageIds to the pages resident in the BufferPool.
+ * <p>
+ * The table is split into shards selected by the PageId hash. Each shard
+ * keeps its own frames in a ConcurrentHashMap plus its own
+ * {@link ReplacementPolicy} instance, so a lookup that hits never takes a
+ * lock: it reads the map and lets the policy note the access. Only inserts,
+ * removals and victim selection lock a single shard.
+ * <p>
+ * Frames can be pinned to keep them resident; a pinned frame is never
+ * handed out as a victim.
+ * <p>
+ * The table does not evict on its own. Callers {@link #reserve} a frame
+ * before inserting a new page and, when the table is full, ask it for a
+ * victim with {@link #evict}. The capacity is global so that a small pool
+ * can still be filled completely no matter how its pages hash.
+ *
+ * @Threadsafe
+ */
+class PageTable {
+    private static final int MAX_SHARDS = 16;
+    // replacement policies need a few frames to choose from, so small
+    // pools get fewer shards
+    private static final int MIN_FRAMES_PER_SHARD = 32;
+
+    /** A resident page and the bookkeeping the replacement policies need. */
+    static class Frame {
+        final PageId pid;
+        volatile Page page;
+        // number of outstanding pins, protected by the shard
+        int pins;
+        // CLOCK reference bit, set on hits without locking
+        volatile boolean referenced;
+        // logical times of the last two accesses, used by LRU-2
+        volatile long lastAccess;
+        volatile long prevAccess;
+        // position in the policy's frame list, protected by the shard
+        int slot;
+
+        Frame(PageId pid, Page page) {
+            this.pid = pid;
+            this.page = page;
+        }
+    }
+
+    private static class Shard {
+        final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<>();
+        // protected by the shard's monitor, except ReplacementPolicy.access
+        final ReplacementPolicy policy;
+
+        Shard(ReplacementPolicy policy) {
+            this.policy = policy;
+        }
+    }
+
+    private final Shard[] shards;
+    private final int capacity;
+    private final AtomicInteger size;
+    // shard at which the next eviction sweep starts
+    private final AtomicInteger nextSweep;
+
+    PageTable(int capacity, EvictionPolicy evictionPolicy) {
+        int n = 1;
+        while (n * 2 <= Math.min(MAX_SHARDS, capacity / MIN_FRAMES_PER_SHARD)) {
+            n *= 2;
+        }
+        this.shards = new Shard[n];
+        int shardCapacity = (capacity + n - 1) / n;
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard(evictionPolicy.create(shardCapacity));
+        }
+        this.capacity = capacity;
+        this.size = new AtomicInteger(0);
+        this.nextSweep = new AtomicInteger(0);
+    }
+
+    private Shard shardFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & (shards.length - 1)];
+    }
+
+    /** @return the resident page with this id, or null. Never blocks. */
+    Page get(PageId pid) {
+        Shard shard = shardFor(pid);
+        Frame f = shard.frames.get(pid);
+        if (f == null) {
+            return null;
+        }
+        shard.policy.access(f);
+        return f.page;
+    }
+
+    boolean containsKey(PageId pid) {
+        return shardFor(pid).frames.containsKey(pid);
+    }
+
+    /**
+     * Claim a free frame for a page about to be inserted.
+     * @return false if the table is full and a page must be evicted first
+     */
+    boolean reserve() {
+        while (true) {
+            int n = size.get();
+            if (n >= capacity) {
+                return false;
+            }
+            if (size.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Give back a frame claimed by {@link #reserve} but never used. */
+    void unreserve() {
+        size.decrementAndGet();
+    }
+
+    /**
+     * Insert a page into a frame previously claimed with {@link #reserve}.
+     * If another thread installed the same page first, the reservation is
+     * returned and the resident page wins.
+     *
+     * @return the page now resident under pid
+     */
+    Page putIfAbsent(PageId pid, Page page) {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            Frame existing = shard.frames.get(pid);
+            if (existing != null) {
+                size.decrementAndGet();
+                shard.policy.access(existing);
+                return existing.page;
+            }
+            Frame f = new Frame(pid, page);
+            shard.policy.admit(f);
+            shard.frames.put(pid, f);
+            return page;
+        }
+    }
+
+    /**
+     * Replace the page stored under pid if it is resident.
+     * @return false if pid is not resident
+     */
+    boolean replace(PageId pid, Page page) {
+        Shard shard = shardFor(pid);
+        Frame f = shard.frames.get(pid);
+        if (f == null) {
+            return false;
+        }
+        f.page = page;
+        shard.policy.access(f);
+        return true;
+    }
+
+    /**
+     * Keep pid resident until a matching {@link #unpin}.
+     * @return false if pid is not resident
+     */
+    boolean pin(PageId pid) {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            Frame f = shard.frames.get(pid);
+            if (f == null) {
+                return false;
+            }
+            f.pins++;
+            return true;
+        }
+    }
+
+    void unpin(PageId pid) {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            Frame f = shard.frames.get(pid);
+            if (f != null && f.pins > 0) {
+                f.pins--;
+            }
+        }
+    }
+
+    /** Drop pid from the table, if present. */
+    void remove(PageId pid) {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            Frame f = shard.frames.remove(pid);
+            if (f != null) {
+                shard.policy.remove(f);
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Ask the shards' replacement policies for a victim and remove it from
+     * the table. Shards are tried round robin, starting with a different
+     * shard on each call so that evictions spread over the whole table.
+     * Pinned pages are never chosen.
+     *
+     * @param evictable tells whether a candidate page may be dropped
+     * @return the evicted page, or null if no page is evictable
+     */
+    Page evict(Predicate<Page> evictable) {
+        Predicate<Frame> candidate = f -> f.pins == 0 && evictable.test(f.page);
+        int start = nextSweep.getAndIncrement();
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[(start + i) & (shards.length - 1)];
+            synchronized (shard) {
+                Frame f = shard.policy.victim(candidate);
+                if (f != null) {
+                    shard.frames.remove(f.pid);
+                    shard.policy.remove(f);
+                    size.decrementAndGet();
+                    return f.page;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return up to max unpinned resident pages that pass the filter, in no
+     *   particular order
+     */
+    List<Page> collect(Predicate<Page> filter, int max) {
+        List<Page> res = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Frame f : shard.frames.values()) {
+                    if (res.size() >= max) {
+                        return res;
+                    }
+                    if (f.pins == 0 && filter.test(f.page)) {
+                        res.add(f.page);
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    /** @return a snapshot of the ids of all resident pages */
+    List<PageId> pageIds() {
+        List<PageId> res = new ArrayList<>();
+        for (Shard shard : shards) {
+            res.addAll(shard.frames.keySet());
+        }
+        return res;
+    }
+
+    int size() {
+        return size.get();
+    }
+}
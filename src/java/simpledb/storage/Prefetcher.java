@@ -0,0 +1,162 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Prefetcher reads pages ahead of sequential scans on a small pool of
+ * background I/O threads.
+ * <p>
+ * Pages read ahead are staged outside the page table, so prefetching never
+ * evicts anything; when the scan reaches a page, the BufferPool takes it
+ * from the stage instead of reading it synchronously. The stage is bounded
+ * and drops its oldest entries when a scan stops early. Staged pages are
+ * read without locks, so the BufferPool must {@link #invalidate} a page
+ * whenever it writes or discards it.
+ *
+ * @Threadsafe
+ */
+class Prefetcher {
+    private static final int IO_THREADS = 2;
+    // shared by every BufferPool instance, created on first use
+    private static ExecutorService ioPool;
+
+    private final Map<PageId, CompletableFuture<Page>> staged;
+    private final Predicate<PageId> resident;
+    private volatile int depth;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param depth the number of pages to read ahead of a scan, 0 disables
+     * @param resident tells whether a page is already in the BufferPool
+     */
+    Prefetcher(int depth, Predicate<PageId> resident) {
+        this.depth = depth;
+        this.resident = resident;
+        this.staged = new LinkedHashMap<PageId, CompletableFuture<Page>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, CompletableFuture<Page>> eldest) {
+                // room for a few concurrent scans, older entries were abandoned
+                return size() > 4 * Math.max(1, Prefetcher.this.depth);
+            }
+        };
+    }
+
+    private static synchronized ExecutorService ioPool() {
+        if (ioPool == null) {
+            ioPool = Executors.newFixedThreadPool(IO_THREADS, r -> {
+                Thread t = new Thread(r, "simpledb-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return ioPool;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /** Start reading pid in the background unless it is resident or staged. */
+    void prefetch(PageId pid) {
+        stage(pid, 1, null);
+    }
+
+    /**
+     * Read ahead a chain of up to depth pages starting at first, where each
+     * following page id is computed from the page before it, for example
+     * by following right-sibling pointers.
+     */
+    void prefetchChain(PageId first, Function<Page, PageId> successor) {
+        stage(first, depth, successor);
+    }
+
+    private void stage(PageId pid, int remaining, Function<Page, PageId> successor) {
+        if (depth == 0 || remaining <= 0 || pid == null || resident.test(pid)) {
+            return;
+        }
+        CompletableFuture<Page> f = new CompletableFuture<>();
+        synchronized (staged) {
+            CompletableFuture<Page> existing = staged.get(pid);
+            if (existing != null) {
+                if (successor != null) {
+                    // already on its way, extend the chain behind it
+                    existing.thenAccept(page -> {
+                        if (page != null) {
+                            stage(successor.apply(page), remaining - 1, successor);
+                        }
+                    });
+                }
+                return;
+            }
+            staged.put(pid, f);
+        }
+        ioPool().execute(() -> {
+            Page page = read(pid);
+            f.complete(page);
+            if (page != null && successor != null) {
+                stage(successor.apply(page), remaining - 1, successor);
+            }
+        });
+    }
+
+    private static Page read(PageId pid) {
+        try {
+            return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (RuntimeException e) {
+            // the table went away or the page does not exist; the scan will
+            // find out when it reads the page itself
+            return null;
+        }
+    }
+
+    /**
+     * Remove pid from the stage, waiting for its read if it is in flight.
+     * @return the prefetched page, or null if pid was not read ahead
+     */
+    Page take(PageId pid) {
+        CompletableFuture<Page> f;
+        synchronized (staged) {
+            f = staged.remove(pid);
+        }
+        Page page = f == null ? null : f.join();
+        if (page == null) {
+            if (depth > 0) {
+                misses.increment();
+            }
+            return null;
+        }
+        hits.increment();
+        return page;
+    }
+
+    /** Forget any staged copy of pid, which is about to change on disk. */
+    void invalidate(PageId pid) {
+        synchronized (staged) {
+            staged.remove(pid);
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+}
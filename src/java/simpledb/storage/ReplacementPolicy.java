@@ -0,0 +1,33 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * Replacement state of one PageTable shard. The PageTable tells the policy
+ * about every frame that enters, is hit in, or leaves the shard, and asks it
+ * for a victim when the pool is full.
+ * <p>
+ * {@link #access} is called on the lock-free hit path and must never block.
+ * All other methods are called with the shard's monitor held.
+ *
+ * @see EvictionPolicy
+ */
+interface ReplacementPolicy {
+
+    /** A new frame has been added to the shard. */
+    void admit(PageTable.Frame f);
+
+    /** The page in f was requested again. Must not block. */
+    void access(PageTable.Frame f);
+
+    /** f has left the shard, either evicted or discarded. */
+    void remove(PageTable.Frame f);
+
+    /**
+     * Choose the frame to evict next without removing it.
+     *
+     * @param evictable tells whether a candidate may be evicted at all
+     * @return the victim, or null if no frame of the shard is evictable
+     */
+    PageTable.Frame victim(Predicate<PageTable.Frame> evictable);
+}
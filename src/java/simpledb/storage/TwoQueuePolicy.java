@@ -0,0 +1,82 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Simplified 2Q replacement (Johnson and Shasha).
+ * <p>
+ * A page seen for the first time goes into the A1in FIFO. When it is evicted
+ * from there, its id is remembered in the A1out ghost queue, and only if it
+ * is requested again while still remembered is it admitted to the main Am
+ * queue. A single scan therefore only cycles through A1in and never pushes
+ * hot pages out of Am. Am is managed with CLOCK rather than strict LRU so
+ * that hits stay lock-free.
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+    private final int kin;
+    private final int kout;
+    private final LinkedHashSet<PageTable.Frame> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final ClockPolicy am = new ClockPolicy();
+
+    /** @param capacity the number of frames this policy manages */
+    TwoQueuePolicy(int capacity) {
+        this.kin = Math.max(1, capacity / 4);
+        this.kout = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    public void admit(PageTable.Frame f) {
+        if (a1out.remove(f.pid)) {
+            am.admit(f);
+        } else {
+            a1in.add(f);
+        }
+    }
+
+    @Override
+    public void access(PageTable.Frame f) {
+        // a re-reference inside A1in is considered correlated and ignored;
+        // in Am this is the CLOCK reference bit
+        f.referenced = true;
+    }
+
+    @Override
+    public void remove(PageTable.Frame f) {
+        if (!a1in.remove(f)) {
+            am.remove(f);
+        }
+    }
+
+    @Override
+    public PageTable.Frame victim(Predicate<PageTable.Frame> evictable) {
+        if (a1in.size() > kin) {
+            PageTable.Frame f = fromA1in(evictable);
+            if (f != null) {
+                return f;
+            }
+        }
+        PageTable.Frame f = am.victim(evictable);
+        if (f != null) {
+            return f;
+        }
+        return fromA1in(evictable);
+    }
+
+    private PageTable.Frame fromA1in(Predicate<PageTable.Frame> evictable) {
+        for (PageTable.Frame f : a1in) {
+            if (evictable.test(f)) {
+                a1out.add(f.pid);
+                if (a1out.size() > kout) {
+                    Iterator<PageId> it = a1out.iterator();
+                    it.next();
+                    it.remove();
+                }
+                return f;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,306 @@
+package simpledb.transaction;
+
+import simpledb.common.Permissions;
+import simpledb.storage.PageId;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager hands out page-level shared (READ_ONLY) and exclusive
+ * (READ_WRITE) locks on behalf of transactions.
+ * <p>
+ * Every page has its own {@link PageLock} which doubles as the wait queue
+ * for that page, so transactions blocked on different pages never contend
+ * on a common monitor. Locks are held until {@link #releaseAll} is called
+ * at transaction completion (strict two-phase locking), except when a
+ * caller explicitly uses {@link #release}.
+ * <p>
+ * Blocked requests are tracked in a {@link WaitForGraph}. Whenever a
+ * transaction has to wait, the graph is checked for a cycle through it and,
+ * if one exists, a victim chosen by the {@link VictimPolicy} is aborted with
+ * a {@link TransactionAbortedException}.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** How to pick the transaction to abort when a deadlock is found. */
+    public enum VictimPolicy {
+        /** Abort the most recently started transaction in the cycle. */
+        YOUNGEST,
+        /** Abort the transaction in the cycle holding the fewest locks. */
+        LEAST_WORK
+    }
+
+    /**
+     * Lock state of a single page. All fields are protected by the
+     * PageLock's own monitor, and waiters block on that same monitor.
+     */
+    private static class PageLock {
+        final Set<TransactionId> sharedHolders = new HashSet<>();
+        TransactionId exclusiveHolder;
+        int waiters;
+        // set once the lock has been unlinked from the lock table; a thread
+        // that finds a retired lock must look the page up again
+        boolean retired;
+
+        boolean isHeldBy(TransactionId tid) {
+            return tid.equals(exclusiveHolder) || sharedHolders.contains(tid);
+        }
+
+        boolean isFree() {
+            return exclusiveHolder == null && sharedHolders.isEmpty();
+        }
+
+        /** Try to grant perm to tid without blocking. */
+        boolean tryGrant(TransactionId tid, Permissions perm) {
+            if (tid.equals(exclusiveHolder)) {
+                return true;
+            }
+            if (perm == Permissions.READ_ONLY) {
+                if (exclusiveHolder == null) {
+                    sharedHolders.add(tid);
+                    return true;
+                }
+                return false;
+            }
+            // READ_WRITE: free, or tid is the only shared holder (upgrade)
+            if (exclusiveHolder == null && (sharedHolders.isEmpty()
+                    || (sharedHolders.size() == 1 && sharedHolders.contains(tid)))) {
+                sharedHolders.clear();
+                exclusiveHolder = tid;
+                return true;
+            }
+            return false;
+        }
+
+        /** @return the transactions that keep tid from being granted perm */
+        Set<TransactionId> blockers(TransactionId tid, Permissions perm) {
+            Set<TransactionId> res = new HashSet<>();
+            if (exclusiveHolder != null) {
+                res.add(exclusiveHolder);
+            }
+            if (perm == Permissions.READ_WRITE) {
+                res.addAll(sharedHolders);
+            }
+            res.remove(tid);
+            return res;
+        }
+
+        void release(TransactionId tid) {
+            if (tid.equals(exclusiveHolder)) {
+                exclusiveHolder = null;
+            }
+            sharedHolders.remove(tid);
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> pageLocks;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> heldPages;
+    // lock each blocked transaction is currently waiting on, used to wake
+    // up deadlock victims
+    private final ConcurrentHashMap<TransactionId, PageLock> waitingOn;
+    private final WaitForGraph waitForGraph;
+    private final VictimPolicy victimPolicy;
+    private final AtomicLong deadlockAborts;
+
+    public LockManager() {
+        this(VictimPolicy.YOUNGEST);
+    }
+
+    public LockManager(VictimPolicy victimPolicy) {
+        this.pageLocks = new ConcurrentHashMap<>();
+        this.heldPages = new ConcurrentHashMap<>();
+        this.waitingOn = new ConcurrentHashMap<>();
+        this.waitForGraph = new WaitForGraph();
+        this.victimPolicy = victimPolicy;
+        this.deadlockAborts = new AtomicLong(0);
+    }
+
+    /**
+     * Acquire a lock on the specified page, blocking until it is granted.
+     * A transaction that already holds a shared lock on the page and asks
+     * for READ_WRITE is upgraded in place once it is the only reader.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if tid was chosen as a deadlock
+     *   victim or the wait is interrupted
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        if (waitForGraph.isVictim(tid)) {
+            throw new TransactionAbortedException();
+        }
+        PageLock lock = pageLocks.computeIfAbsent(pid, k -> new PageLock());
+        try {
+            while (true) {
+                TransactionId victim;
+                synchronized (lock) {
+                    if (lock.retired) {
+                        lock = pageLocks.computeIfAbsent(pid, k -> new PageLock());
+                        continue;
+                    }
+                    if (lock.tryGrant(tid, perm)) {
+                        if (lock.waiters > 0) {
+                            // the holder set grew, let waiters refresh their
+                            // wait-for edges
+                            lock.notifyAll();
+                        }
+                        break;
+                    }
+                    if (waitForGraph.isVictim(tid)) {
+                        throw new TransactionAbortedException();
+                    }
+                    waitingOn.put(tid, lock);
+                    victim = waitForGraph.block(tid, lock.blockers(tid, perm), this::chooseVictim);
+                    if (victim != null) {
+                        deadlockAborts.incrementAndGet();
+                    }
+                    if (tid.equals(victim)) {
+                        throw new TransactionAbortedException();
+                    }
+                    if (victim == null) {
+                        lock.waiters++;
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            throw new TransactionAbortedException();
+                        } finally {
+                            lock.waiters--;
+                        }
+                        continue;
+                    }
+                }
+                // wake the victim outside our own monitor so two detectors
+                // never hold one page lock while waiting for another
+                wakeUp(victim);
+            }
+        } finally {
+            waitingOn.remove(tid, lock);
+            waitForGraph.unblock(tid);
+        }
+        heldPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /**
+     * Grant perm on pid to tid if that is possible without waiting.
+     *
+     * @return false, and nothing changes, if the lock is held in a
+     *   conflicting mode
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm) {
+        while (true) {
+            PageLock lock = pageLocks.computeIfAbsent(pid, k -> new PageLock());
+            synchronized (lock) {
+                if (lock.retired) {
+                    continue;
+                }
+                if (!lock.tryGrant(tid, perm)) {
+                    return false;
+                }
+                if (lock.waiters > 0) {
+                    lock.notifyAll();
+                }
+            }
+            heldPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+            return true;
+        }
+    }
+
+    /** Return true if the specified transaction holds any lock on the page. */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = pageLocks.get(pid);
+        if (lock == null) {
+            return false;
+        }
+        synchronized (lock) {
+            return lock.isHeldBy(tid);
+        }
+    }
+
+    /** Release whatever lock tid holds on pid and wake up waiters. */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = heldPages.get(tid);
+        if (pages != null) {
+            pages.remove(pid);
+        }
+        releaseLock(tid, pid);
+    }
+
+    /** Release every lock held by the specified transaction. */
+    public void releaseAll(TransactionId tid) {
+        waitForGraph.forget(tid);
+        Set<PageId> pages = heldPages.remove(tid);
+        if (pages == null) {
+            return;
+        }
+        for (PageId pid : pages) {
+            releaseLock(tid, pid);
+        }
+    }
+
+    /** @return the pages on which tid currently holds a lock */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pages = heldPages.get(tid);
+        if (pages == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(pages);
+    }
+
+    /** @return the number of transactions aborted to break a deadlock */
+    public long getDeadlockAbortCount() {
+        return deadlockAborts.get();
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = cycle.get(0);
+        for (TransactionId t : cycle) {
+            if (victimPolicy == VictimPolicy.LEAST_WORK) {
+                if (lockCount(t) < lockCount(victim)) {
+                    victim = t;
+                }
+            } else if (t.getId() > victim.getId()) {
+                victim = t;
+            }
+        }
+        return victim;
+    }
+
+    private int lockCount(TransactionId tid) {
+        Set<PageId> pages = heldPages.get(tid);
+        return pages == null ? 0 : pages.size();
+    }
+
+    private void wakeUp(TransactionId tid) {
+        PageLock lock = waitingOn.get(tid);
+        if (lock != null) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void releaseLock(TransactionId tid, PageId pid) {
+        PageLock lock = pageLocks.get(pid);
+        if (lock == null) {
+            return;
+        }
+        synchronized (lock) {
+            lock.release(tid);
+            if (lock.waiters > 0) {
+                lock.notifyAll();
+            } else if (lock.isFree()) {
+                lock.retired = true;
+                pageLocks.remove(pid, lock);
+            }
+        }
+    }
+}
@@ -14,12 +14,25 @@ public class Transaction {
     volatile boolean started = false;
 
     public Transaction() {
-        tid = new TransactionId();
+        this(false);
+    }
+
+    /**
+     * @param readOnly whether the transaction only reads.  A read-only
+     *   transaction takes only shared locks and never touches the log: it
+     *   writes no BEGIN or COMMIT record, and completing it just releases
+     *   its locks.
+     */
+    public Transaction(boolean readOnly) {
+        tid = new TransactionId(readOnly);
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (tid.isReadOnly()) {
+            return;
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -44,14 +57,25 @@ public class Transaction {
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
-        if (started) {
+        if (started && tid.isReadOnly()) {
+            // nothing to log or roll back
+            Database.getBufferPool().transactionComplete(tid, !abort);
+            started = false;
+        } else if (started) {
             //write abort log record and rollback transaction
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } 
 
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            // Release locks and flush pages if needed; if the pages
+            // cannot be flushed the buffer pool rolls the transaction back
+            // and throws, so no commit record is written
+            try {
+                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            } catch (RuntimeException e) {
+                started = false;
+                throw e;
+            }
 
             // write commit log record
             if (!abort) {
@@ -12,15 +12,29 @@ public class TransactionId implements Serializable {
 
     static final AtomicLong counter = new AtomicLong(0);
     final long myid;
+    private final boolean readOnly;
 
     public TransactionId() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly whether the transaction only reads; it then may only
+     *   take shared locks, and never writes to the log
+     */
+    public TransactionId(boolean readOnly) {
         myid = counter.getAndIncrement();
+        this.readOnly = readOnly;
     }
 
     public long getId() {
         return myid;
     }
 
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     @Override
 	public boolean equals(Object obj) {
 		if (this == obj)
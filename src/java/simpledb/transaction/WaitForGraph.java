@@ -0,0 +1,96 @@
+package simpledb.transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Wait-for graph between transactions blocked on page locks.
+ * <p>
+ * An edge T1 -> T2 means T1 is waiting for a lock that T2 holds. The graph
+ * is maintained incrementally: a transaction's out-edges are replaced each
+ * time it blocks and dropped as soon as it is granted the lock or gives up.
+ * Since only the blocking transaction gains edges, any new cycle must pass
+ * through it, so detection is a single DFS from that transaction.
+ *
+ * @Threadsafe
+ */
+class WaitForGraph {
+    private final Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+    private final Set<TransactionId> victims = new HashSet<>();
+
+    /**
+     * Record that tid is blocked behind holders and check for a deadlock.
+     *
+     * @param chooser picks the transaction to abort out of a cycle
+     * @return the victim chosen to break a cycle through tid, or null if
+     *   tid can safely wait
+     */
+    synchronized TransactionId block(TransactionId tid, Set<TransactionId> holders,
+                                     Function<List<TransactionId>, TransactionId> chooser) {
+        waitsFor.put(tid, holders);
+        List<TransactionId> cycle = findCycle(tid);
+        if (cycle == null) {
+            return null;
+        }
+        TransactionId victim = chooser.apply(cycle);
+        victims.add(victim);
+        // the victim is going away, so it no longer waits for anyone
+        waitsFor.remove(victim);
+        return victim;
+    }
+
+    /** tid is no longer waiting for any lock. */
+    synchronized void unblock(TransactionId tid) {
+        waitsFor.remove(tid);
+    }
+
+    /** @return true if tid has been chosen to break a deadlock */
+    synchronized boolean isVictim(TransactionId tid) {
+        return victims.contains(tid);
+    }
+
+    /** Drop all state about a completed transaction. */
+    synchronized void forget(TransactionId tid) {
+        waitsFor.remove(tid);
+        victims.remove(tid);
+    }
+
+    private List<TransactionId> findCycle(TransactionId start) {
+        List<TransactionId> path = new ArrayList<>();
+        path.add(start);
+        if (dfs(start, start, path, new HashSet<>())) {
+            return path;
+        }
+        return null;
+    }
+
+    private boolean dfs(TransactionId cur, TransactionId start, List<TransactionId> path,
+                        Set<TransactionId> visited) {
+        Set<TransactionId> next = waitsFor.get(cur);
+        if (next == null) {
+            return false;
+        }
+        for (TransactionId t : next) {
+            if (victims.contains(t)) {
+                // already being aborted, its locks will be released shortly
+                continue;
+            }
+            if (t.equals(start)) {
+                return true;
+            }
+            if (visited.add(t)) {
+                path.add(t);
+                if (dfs(t, start, path, visited)) {
+                    return true;
+                }
+                path.remove(path.size() - 1);
+            }
+        }
+        return false;
+    }
+}
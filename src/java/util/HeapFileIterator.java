@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
 import simpledb.storage.BufferPool;
+import simpledb.storage.BufferRing;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.HeapFile;
 import simpledb.storage.HeapPage;
@@ -25,6 +26,11 @@ public class HeapFileIterator implements DbFileIterator {
     private HeapPage curHeapPage;
     private Iterator<Tuple> it;
     private boolean isOpen = false;
+    private BufferRing ring;
+    // last page handed to the prefetcher and length of the current run of
+    // consecutive page reads
+    private int prefetchedUpTo;
+    private int sequentialRun;
 
     public HeapFileIterator(int numPages, int id,  TransactionId tid){
         this.numPages = numPages;
@@ -36,7 +42,11 @@ public class HeapFileIterator implements DbFileIterator {
     public void open() throws DbException, TransactionAbortedException {
         isOpen = true;
         curPage = 0;
-        curHeapPage = (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(heapFileId, curPage), Permissions.READ_ONLY);
+        // large scans read through a private ring so they don't flush the pool
+        ring = Database.getBufferPool().newBufferRing(numPages);
+        prefetchedUpTo = 0;
+        sequentialRun = 0;
+        curHeapPage = readPage(curPage);
         it = curHeapPage.iterator();
     }
 
@@ -50,7 +60,7 @@ public class HeapFileIterator implements DbFileIterator {
             return false;
         }
         while(curPage < numPages){
-            curHeapPage = (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(heapFileId, curPage), Permissions.READ_ONLY);
+            curHeapPage = readPage(curPage);
             it = curHeapPage.iterator();
             if(it.hasNext()) {
                 break;
@@ -60,6 +70,21 @@ public class HeapFileIterator implements DbFileIterator {
         return curPage < numPages;
     }
 
+    private HeapPage readPage(int pgNo) throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        // once the scan has moved on past its first page it is clearly
+        // sequential, so keep the next few pages coming in the background
+        sequentialRun++;
+        if (sequentialRun >= 2) {
+            int last = Math.min(pgNo + bp.getPrefetchDepth(), numPages - 1);
+            for (int i = Math.max(prefetchedUpTo, pgNo) + 1; i <= last; i++) {
+                bp.prefetchPage(new HeapPageId(heapFileId, i));
+                prefetchedUpTo = i;
+            }
+        }
+        return (HeapPage) bp.getPage(tid, new HeapPageId(heapFileId, pgNo), Permissions.READ_ONLY, ring);
+    }
+
     @Override
     public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
         if(!isOpen || it == null) {
@@ -80,5 +105,6 @@ public class HeapFileIterator implements DbFileIterator {
     public void close() {
         isOpen = false;
         curPage = 0;
+        ring = null;
     }
 }
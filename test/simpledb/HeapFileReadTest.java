@@ -6,6 +6,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -81,6 +82,54 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a page past the end of the file
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void readPagePastEnd() {
+        hf.readPage(new HeapPageId(hf.getId(), 1));
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() after its file was closed
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        hf.close();
+
+        // the channel is reopened on demand
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode, including
+     * pages appended after the file was first mapped
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 600, 1000, null, tuples);
+        HeapFile mapped = new HeapFile(f, td, true);
+        Database.getCatalog().addTable(mapped);
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals(2, mapped.numPages());
+
+        HeapPageId pid = new HeapPageId(mapped.getId(), 1);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertArrayEquals(new HeapFile(f, td).readPage(pid).getPageData(), page.getPageData());
+
+        HeapPage appended = new HeapPage(new HeapPageId(mapped.getId(), 2), HeapPage.createEmptyPageData());
+        appended.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+        mapped.writePage(appended);
+        HeapPage reread = (HeapPage) mapped.readPage(appended.getId());
+        assertEquals(503, reread.getNumEmptySlots());
+        tuples.add(Arrays.asList(7, 8));
+        SystemTestUtil.matchTuples(mapped, tuples);
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
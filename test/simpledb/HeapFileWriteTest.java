@@ -50,6 +50,27 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.writePages() with unordered, partly adjacent pages
+     */
+    @Test public void writePages() throws Exception {
+        int tableId = empty.getId();
+        HeapPage[] pages = new HeapPage[5];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new HeapPage(new HeapPageId(tableId, i), HeapPage.createEmptyPageData());
+            for (int j = 0; j <= i; j++) {
+                pages[i].insertTuple(Utility.getHeapTuple(i, 2));
+            }
+        }
+        // pages 0, 1 and 2 form one run, 4 another; 3 stays empty on disk
+        empty.writePages(Arrays.asList(pages[4], pages[1], pages[0], pages[2]));
+        assertEquals(5, empty.numPages());
+        for (int i : new int[] {0, 1, 2, 4}) {
+            assertArrayEquals(pages[i].getPageData(), empty.readPage(pages[i].getId()).getPageData());
+        }
+        assertEquals(504, ((HeapPage) empty.readPage(new HeapPageId(tableId, 3))).getNumEmptySlots());
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -131,6 +131,28 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage() around
+     * changes to the page
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] original = page.getPageData();
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        byte[] changed = page.getPageData();
+        assertFalse(java.util.Arrays.equals(original, changed));
+        // the before image is a snapshot, not a view of the page
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertArrayEquals(changed, page.getBeforeImage().getPageData());
+        assertArrayEquals(changed, new HeapPage(pid, changed).getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -5,6 +5,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -15,6 +18,7 @@ import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class JoinTest extends SimpleDbTestBase {
@@ -112,6 +116,59 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * The rows of an iterator, counting how often they are rewound
+   */
+  static class CountingIterator extends TupleIterator {
+    int rewinds = 0;
+
+    CountingIterator(OpIterator it) throws Exception {
+      super(it.getTupleDesc(), readAll(it));
+    }
+
+    private static List<Tuple> readAll(OpIterator it) throws Exception {
+      List<Tuple> tuples = new ArrayList<>();
+      it.open();
+      while (it.hasNext()) {
+        tuples.add(it.next());
+      }
+      it.close();
+      return tuples;
+    }
+
+    @Override public void rewind() {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /**
+   * Unit test for the block nested-loop join: one pass over the right
+   * child per block of left tuples
+   */
+  @Test public void blockJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    int[] budgets = { 1, 2, 3, 4, 100 };
+    int[] passes = { 4, 2, 2, 1, 1 };
+    for (int i = 0; i < budgets.length; i++) {
+      createTupleLists();
+      CountingIterator right = new CountingIterator(scan2);
+      Join op = new Join(pred, scan1, right);
+      op.setMemoryBudget(budgets[i]);
+      op.open();
+      int rows = 0;
+      while (op.hasNext()) {
+        assertNotNull(op.next());
+        rows++;
+      }
+      assertEquals(11, rows);
+      assertEquals(passes[i], right.rewinds + 1);
+      op.rewind();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+    }
+  }
+
   /**
    * JUnit suite target
    */
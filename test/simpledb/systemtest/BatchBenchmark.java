@@ -0,0 +1,55 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times the same plans run on tuples and on batches.  Not part of the
+ * systemtest suite; run it with
+ * <tt>ant runsystest -Dtest=BatchBenchmark</tt>.
+ */
+public class BatchBenchmark extends SimpleDbTestBase {
+    private static final int ROWS = 1000000;
+    private static final int ROUNDS = 5;
+
+    private interface Plan {
+        OpIterator build();
+    }
+
+    private static long time(OpIterator op) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            op.open();
+            while (op.hasNext()) {
+                op.next();
+            }
+            op.close();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1000000;
+    }
+
+    private static void compare(String name, Plan plan) throws Exception {
+        long tuples = time(plan.build());
+        long batches = time(Vectorizer.vectorize(plan.build()));
+        System.out.println(name + ": " + tuples + " ms on tuples, " + batches + " ms on batches");
+    }
+
+    @Test public void benchmark() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, null);
+        HeapFile dim = SystemTestUtil.createRandomHeapFile(2, 1000, 1000, null, null);
+        TransactionId tid = new TransactionId();
+
+        compare("scan", () -> new SeqScan(tid, hf.getId()));
+        compare("filter", () -> new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10)),
+                new SeqScan(tid, hf.getId())));
+        compare("group by", () -> new Aggregate(new Filter(new Predicate(2, Predicate.Op.GREATER_THAN,
+                new IntField(500)), new SeqScan(tid, hf.getId())), 1, 0, Aggregator.Op.SUM));
+        compare("hash join", () -> new Aggregate(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, dim.getId()), new SeqScan(tid, hf.getId())), 1, 0, Aggregator.Op.COUNT));
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that plans run on batches return the same tuples as the same
+ * plans run one tuple at a time.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, null);
+        tid = new TransactionId();
+    }
+
+    /** @return the tuples of op, counted by their values */
+    private static Map<List<Object>, Integer> run(OpIterator op) throws Exception {
+        Map<List<Object>, Integer> res = new HashMap<>();
+        op.open();
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            List<Object> values = new ArrayList<>();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                Field f = t.getField(i);
+                values.add(f instanceof IntField ? ((IntField) f).getValue() : ((StringField) f).getValue());
+            }
+            res.merge(values, 1, Integer::sum);
+        }
+        op.close();
+        return res;
+    }
+
+    /** Run plan on tuples and on batches and compare, built twice since vectorizing changes it. */
+    private interface Plan {
+        OpIterator build() throws Exception;
+    }
+
+    private Map<List<Object>, Integer> check(Plan plan) throws Exception {
+        Map<List<Object>, Integer> expected = run(plan.build());
+        OpIterator vectorized = Vectorizer.vectorize(plan.build());
+        assertTrue(vectorized instanceof TupleAdapter);
+        // TupleDesc.equals compares field names by reference
+        assertEquals(plan.build().getTupleDesc().toString(), vectorized.getTupleDesc().toString());
+        assertEquals(expected, run(vectorized));
+        return expected;
+    }
+
+    @Test public void testScan() throws Exception {
+        Map<List<Object>, Integer> res = check(() -> new SeqScan(tid, hf.getId()));
+        assertEquals(ROWS, res.values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test public void testFilter() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            check(() -> new Filter(new Predicate(1, op, new IntField(50)), new SeqScan(tid, hf.getId())));
+        }
+        // filters stacked on each other narrow the same batches
+        check(() -> new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30)),
+                new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(60)),
+                        new SeqScan(tid, hf.getId()))));
+    }
+
+    @Test public void testProject() throws Exception {
+        check(() -> new Project(Arrays.asList(2, 0), new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(90)),
+                        new SeqScan(tid, hf.getId()))));
+    }
+
+    @Test public void testAggregate() throws Exception {
+        Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT };
+        for (Aggregator.Op op : ops) {
+            Map<List<Object>, Integer> groups = check(() -> new Aggregate(new SeqScan(tid, hf.getId()), 1, 0, op));
+            assertEquals(100, groups.size());
+        }
+    }
+
+    @Test public void testAggregateWithoutGrouping() throws Exception {
+        // Aggregate itself cannot open without a group field, so compare
+        // with the values computed from a scan
+        int sum = 0, min = Integer.MAX_VALUE;
+        for (Map.Entry<List<Object>, Integer> e : run(new SeqScan(tid, hf.getId())).entrySet()) {
+            int v = (Integer) e.getKey().get(1);
+            sum += v * e.getValue();
+            min = Math.min(min, v);
+        }
+        assertEquals(Arrays.asList(sum), runBatched(Aggregator.Op.SUM));
+        assertEquals(Arrays.asList(min), runBatched(Aggregator.Op.MIN));
+        assertEquals(Arrays.asList(ROWS), runBatched(Aggregator.Op.COUNT));
+        assertEquals(Arrays.asList(sum / ROWS), runBatched(Aggregator.Op.AVG));
+    }
+
+    private List<Object> runBatched(Aggregator.Op op) throws Exception {
+        Map<List<Object>, Integer> res = run(Vectorizer.vectorize(
+                new Aggregate(new SeqScan(tid, hf.getId()), 1, Aggregator.NO_GROUPING, op)));
+        assertEquals(1, res.size());
+        return res.keySet().iterator().next();
+    }
+
+    @Test public void testStrings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("name" + (i % 37), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        check(() -> new Filter(new Predicate(0, Predicate.Op.LIKE, new StringField("e1", Type.STRING_LEN)),
+                new TupleIterator(td, tuples)));
+        Map<List<Object>, Integer> groups = check(() -> new Aggregate(new TupleIterator(td, tuples), 1, 0,
+                Aggregator.Op.SUM));
+        assertEquals(37, groups.size());
+        check(() -> new Aggregate(new TupleIterator(td, tuples), 0, 1, Aggregator.Op.COUNT));
+        check(() -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(td, tuples.subList(0, 100)), new TupleIterator(td, tuples)));
+    }
+
+    @Test public void testHashJoin() throws Exception {
+        // more rows on the left than fit in one hash table load
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, HashEquiJoin.MAP_SIZE + 5000, 1 << 20, null, null);
+        Map<List<Object>, Integer> res = check(() -> new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, big.getId()), new SeqScan(tid, hf.getId())));
+        assertFalse(res.isEmpty());
+        check(() -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, hf.getId(), "a"), new SeqScan(tid, hf.getId(), "b")));
+    }
+
+    @Test public void testHashJoinSpills() throws Exception {
+        // the left child is partitioned, and most partitions still take
+        // more than one load
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, null);
+        Map<List<Object>, Integer> res = check(() -> {
+            HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                    new SeqScan(tid, left.getId()), new SeqScan(tid, hf.getId()));
+            join.setMemoryBudget(50);
+            return join;
+        });
+        assertFalse(res.isEmpty());
+    }
+
+    @Test public void testSeesChangedPages() throws Exception {
+        // rows inserted by this transaction are only in the decoded tuples
+        // of the page, not in its bytes
+        Tuple t = Utility.getHeapTuple(new int[] { -1, -2, -3 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        first.deleteTuple(first.iterator().next());
+        Map<List<Object>, Integer> res = check(() -> new SeqScan(tid, hf.getId()));
+        assertEquals(Integer.valueOf(1), res.get(Arrays.<Object>asList(-1, -2, -3)));
+        assertEquals(ROWS, res.values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that small page changes are logged as deltas and can be undone.
+ */
+public class DeltaLogTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private HeapPage before;
+    private HeapPage after;
+    private File f;
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        // the second page has room left
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 + 100, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        before = (HeapPage) hf.readPage(pid);
+        after = (HeapPage) hf.readPage(pid);
+        after.insertTuple(Utility.getHeapTuple(42, 2));
+
+        f = File.createTempFile("deltalog", ".log");
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    @Test public void testInsertLogsDelta() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, before, after);
+        log.logCommit(tid);
+        assertTrue("log grew by " + log.getSize() + " bytes for one tuple",
+                log.getSize() < BufferPool.getPageSize() / 8);
+    }
+
+    @Test public void testRollbackUndoesDelta() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, before, after);
+        // the change reaches the disk before the transaction aborts
+        hf.writePage(after);
+        log.rollback(tid);
+        assertArrayEquals(before.getPageData(), hf.readPage(before.getId()).getPageData());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DeltaLogTest.class);
+    }
+}
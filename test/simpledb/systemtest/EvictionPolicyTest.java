@@ -0,0 +1,141 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.EvictionPolicy;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the EvictionTest style workloads against every replacement policy.
+ */
+public class EvictionPolicyTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 16;
+    private static final int HOT_PAGES = 6;
+    private static final int SCAN_PAGES = 64;
+    private static final int ROUNDS = 5;
+
+    private static void touchPages(BufferPool bp, TransactionId tid, HeapFile f)
+            throws DbException, TransactionAbortedException {
+        for (int i = 0; i < f.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Mixed OLTP and scan workload: a small hot table is read over and over
+     * while a table four times the size of the pool is scanned in between.
+     *
+     * @return the hit ratio of the hot table reads after the first round
+     */
+    private static double hotHitRatio(EvictionPolicy policy, HeapFile hot, HeapFile big)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES, policy);
+        TransactionId tid = new TransactionId();
+        long hotHits = 0, hotReads = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = bp.getHitCount();
+            touchPages(bp, tid, hot);
+            touchPages(bp, tid, hot);
+            if (round > 0) {
+                hotHits += bp.getHitCount() - before;
+                hotReads += 2 * hot.numPages();
+            }
+            touchPages(bp, tid, big);
+        }
+        bp.transactionComplete(tid);
+        assertEquals(ROUNDS * (2 * HOT_PAGES + SCAN_PAGES), bp.getHitCount() + bp.getMissCount());
+        return (double) hotHits / hotReads;
+    }
+
+    @Test public void testMixedWorkload() throws IOException, DbException, TransactionAbortedException {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * SCAN_PAGES, null, null);
+        assertEquals(HOT_PAGES, hot.numPages());
+        assertEquals(SCAN_PAGES, big.numPages());
+
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            double ratio = hotHitRatio(policy, hot, big);
+            String msg = policy + " hot page hit ratio " + ratio;
+            // the second touch of the hot table in a round always hits
+            assertTrue(msg, ratio >= 0.5);
+            if (policy == EvictionPolicy.LRU_2) {
+                // hot pages have two recent references, scanned pages only one
+                assertEquals(msg, 1.0, ratio, 0.0);
+            }
+        }
+    }
+
+    @Test public void testDoNotEvictDirtyPages() throws IOException, DbException, TransactionAbortedException {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+            Database.resetBufferPool(2, policy);
+
+            Transaction t = new Transaction();
+            t.start();
+            AbortEvictionTest.insertRow(f, t);
+            assertTrue(AbortEvictionTest.findMagicTuple(f, t));
+            t.abort();
+
+            Transaction t2 = new Transaction();
+            t2.start();
+            assertFalse(AbortEvictionTest.findMagicTuple(f, t2));
+            t2.commit();
+        }
+    }
+
+    @Test public void testPinnedPagesStayResident() throws IOException, DbException, TransactionAbortedException {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+            BufferPool bp = Database.resetBufferPool(2, policy);
+            TransactionId tid = new TransactionId();
+            HeapPageId p0 = new HeapPageId(f.getId(), 0);
+
+            bp.getPage(tid, p0, Permissions.READ_ONLY);
+            assertTrue(bp.pinPage(p0));
+            touchPages(bp, tid, f);
+            long misses = bp.getMissCount();
+            bp.getPage(tid, p0, Permissions.READ_ONLY);
+            assertEquals(misses, bp.getMissCount());
+            bp.unpinPage(p0);
+            bp.transactionComplete(tid);
+        }
+    }
+
+    @Test public void testLargeScanKeepsHotPages() throws IOException, DbException, TransactionAbortedException {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * SCAN_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(4 * BufferPool.SCAN_RING_PAGES);
+        TransactionId tid = new TransactionId();
+        touchPages(bp, tid, hot);
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+
+        // the scan went through its ring, so no hot page was evicted
+        long misses = bp.getMissCount();
+        touchPages(bp, tid, hot);
+        assertEquals(misses, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
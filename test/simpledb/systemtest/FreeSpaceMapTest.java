@@ -0,0 +1,92 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that HeapFile inserts find free space through the free-space map
+ * instead of visiting every page.
+ */
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private static final int FULL_PAGES = 100;
+
+    private static int insert(HeapFile f, TransactionId tid, int value)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> pages = f.insertTuple(tid, Utility.getHeapTuple(value, 2));
+        assertEquals(1, pages.size());
+        return pages.get(0).getId().getPageNumber();
+    }
+
+    @Test public void testInsertIntoFullTable() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * FULL_PAGES, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+
+        assertEquals(FULL_PAGES, insert(f, tid, 1));
+        assertEquals(FULL_PAGES + 1, f.numPages());
+        // none of the full pages was locked on the way
+        for (int i = 0; i < FULL_PAGES; i++) {
+            assertFalse(bp.holdsLock(tid, new HeapPageId(f.getId(), i)));
+        }
+        assertEquals(FULL_PAGES, insert(f, tid, 2));
+        bp.transactionComplete(tid);
+    }
+
+    @Test public void testDeleteFreesSpace() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+
+        Tuple victim = firstTupleOnPage(f, tid, 2);
+        bp.deleteTuple(tid, victim);
+        assertEquals(2, insert(f, tid, 1));
+        assertEquals(4, f.numPages());
+        bp.transactionComplete(tid);
+    }
+
+    private static Tuple firstTupleOnPage(HeapFile f, TransactionId tid, int pgNo)
+            throws DbException, TransactionAbortedException {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+        return page.iterator().next();
+    }
+
+    @Test public void testMapSurvivesReopen() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        TransactionId tid = new TransactionId();
+        assertEquals(3, insert(f, tid, 1));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(new File(f.getFile().getPath() + ".fsm").exists());
+
+        // a fresh HeapFile on the same file picks the map up from disk
+        Database.reset();
+        HeapFile reopened = new HeapFile(f.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened);
+        tid = new TransactionId();
+        assertEquals(3, insert(reopened, tid, 2));
+        assertEquals(4, reopened.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
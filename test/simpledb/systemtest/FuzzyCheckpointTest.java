@@ -0,0 +1,82 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that checkpoints neither stall the BufferPool nor lose changes
+ * recovery still needs.
+ */
+public class FuzzyCheckpointTest extends SimpleDbTestBase {
+
+    @Test public void testCheckpointDoesNotLockBufferPool() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        Insert insert = new Insert(t.getId(), new TupleIterator(Utility.getTupleDesc(2),
+                Collections.singletonList(Utility.getHeapTuple(1, 2))), hf.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+        t.commit();
+
+        CompletableFuture<Void> checkpoint;
+        synchronized (Database.getBufferPool()) {
+            checkpoint = CompletableFuture.runAsync(() -> {
+                try {
+                    Database.getLogFile().logCheckpoint();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            // completes while another thread holds the pool
+            checkpoint.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test public void testRedoStartCoversUnwrittenPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage before = (HeapPage) hf.readPage(pid);
+        HeapPage after = (HeapPage) hf.readPage(pid);
+        after.insertTuple(Utility.getHeapTuple(42, 2));
+
+        File f = File.createTempFile("checkpoint", ".log");
+        f.deleteOnExit();
+        // tiny segments, so that truncation could drop the update's segment
+        LogFile log = new LogFile(f, 32);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, before, after);
+        log.logCommit(tid);
+        long committed = log.getSize();
+
+        // no transaction is active, but the page never reached the disk
+        // through the BufferPool, so its record must survive truncation
+        log.logCheckpoint();
+        assertTrue(log.getSize() > committed);
+        assertTrue(log.getSize() < BufferPool.getPageSize());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FuzzyCheckpointTest.class);
+    }
+}
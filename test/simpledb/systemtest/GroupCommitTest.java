@@ -0,0 +1,79 @@
+package simpledb.systemtest;
+
+import org.junit.After;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Log2Histogram;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that concurrent commits share forces of the log.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int COMMITS_PER_THREAD = 20;
+
+    @After public void restoreDelay() {
+        Database.getLogFile().setGroupCommitDelay(LogFile.DEFAULT_GROUP_COMMIT_DELAY_MICROS);
+    }
+
+    private static void commitConcurrently() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                        Transaction tr = new Transaction();
+                        tr.start();
+                        tr.commit();
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals("commit failed: " + errors, 0, errors.size());
+    }
+
+    @Test public void testCommitsShareForces() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitDelay(2000);
+        commitConcurrently();
+
+        int total = THREADS * COMMITS_PER_THREAD;
+        Log2Histogram batches = log.getCommitBatchSizes();
+        assertEquals(total, batches.getSum());
+        assertTrue("expected fewer forces than commits, got " + batches.getCount(),
+                batches.getCount() < total);
+        assertTrue(batches.getMax() > 1);
+        assertEquals(total, log.getCommitLatencies().getCount());
+        // one BEGIN and one COMMIT record per transaction
+        assertEquals(2 * total, log.getTotalRecords());
+    }
+
+    @Test public void testNoDelay() throws Exception {
+        LogFile log = Database.getLogFile();
+        assertEquals(0, log.getGroupCommitDelay());
+        commitConcurrently();
+        assertEquals(THREADS * COMMITS_PER_THREAD, log.getCommitBatchSizes().getSum());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the hybrid hash join when the left child does not fit in memory.
+ */
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private List<List<Integer>> t1Tuples = new ArrayList<>();
+    private List<List<Integer>> t2Tuples = new ArrayList<>();
+
+    private HashEquiJoin join(int rows1, int rows2, int maxValue, int budget) throws Exception {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, rows1, maxValue, null, t1Tuples);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, rows2, maxValue, null, t2Tuples);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""));
+        join.setMemoryBudget(budget);
+        return join;
+    }
+
+    private Map<List<Integer>, Integer> expected() {
+        return SystemTestUtil.joinTuples(t1Tuples, t2Tuples, (t1, t2) -> t1.get(0).equals(t2.get(0)));
+    }
+
+    @Test public void testInMemory() throws Exception {
+        HashEquiJoin join = join(1000, 2000, 500, HashEquiJoin.MAP_SIZE);
+        join.open();
+        assertEquals(expected(), SystemTestUtil.countTuples(join));
+        join.close();
+    }
+
+    @Test public void testSpilledPartitions() throws Exception {
+        int before = SystemTestUtil.countSpillFiles();
+        // the first partition fits in a budget of 200, the others are
+        // joined from disk
+        HashEquiJoin join = join(3000, 2000, 1000, 200);
+        join.open();
+        assertTrue(SystemTestUtil.countSpillFiles() > before);
+        assertEquals(expected(), SystemTestUtil.countTuples(join));
+        join.close();
+        assertEquals(before, SystemTestUtil.countSpillFiles());
+    }
+
+    @Test public void testPartitionsLargerThanBudget() throws Exception {
+        // every partition, the first one too, is larger than the budget
+        // and joined in several rounds
+        HashEquiJoin join = join(5000, 2000, 1000, 40);
+        join.open();
+        assertEquals(expected(), SystemTestUtil.countTuples(join));
+        join.close();
+    }
+
+    @Test public void testRewind() throws Exception {
+        HashEquiJoin join = join(3000, 2000, 1000, 100);
+        join.open();
+        Map<List<Integer>, Integer> first = SystemTestUtil.countTuples(join);
+        join.rewind();
+        assertEquals(first, SystemTestUtil.countTuples(join));
+        assertEquals(expected(), first);
+        join.close();
+    }
+
+    @Test public void testFailedOpenDeletesSpills() throws Exception {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, t1Tuples);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 100, 1000, null, t2Tuples);
+        TransactionId tid = new TransactionId();
+        // the left child fails once the join has started spilling it
+        Predicate failing = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)) {
+            private int read = 0;
+
+            @Override
+            public boolean filter(Tuple t) {
+                if (++read > 1000) {
+                    throw new IllegalStateException("read failed");
+                }
+                return super.filter(t);
+            }
+        };
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new Filter(failing, new SeqScan(tid, table1.getId(), "")),
+                new SeqScan(tid, table2.getId(), ""));
+        join.setMemoryBudget(100);
+        int before = SystemTestUtil.countSpillFiles();
+        try {
+            join.open();
+            fail("expected the open to fail");
+        } catch (IllegalStateException e) {
+            assertEquals(before, SystemTestUtil.countSpillFiles());
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
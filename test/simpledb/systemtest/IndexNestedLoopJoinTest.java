@@ -0,0 +1,142 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeKeyCursor;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the index nested-loop join, the B+ tree lookups under it and its
+ * place in the optimizer.
+ */
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private final List<List<Integer>> t1Tuples = new ArrayList<>();
+    private final List<List<Integer>> t2Tuples = new ArrayList<>();
+    private final TransactionId tid = new TransactionId();
+
+    /** @return the joined rows, where right rows must have field 1 below max1 */
+    private Map<List<Integer>, Integer> expected(int max1) {
+        return SystemTestUtil.joinTuples(t1Tuples, t2Tuples,
+                (t1, t2) -> t1.get(1).equals(t2.get(0)) && t2.get(1) < max1);
+    }
+
+    @Test public void testJoin() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 1000, 600, null, t1Tuples);
+        BTreeFile inner = BTreeUtility.createRandomBTreeFile(2, 3000, 500, null, t2Tuples, 0);
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId()),
+                new SeqScan(tid, inner.getId()));
+        join.open();
+        assertEquals(expected(Integer.MAX_VALUE), SystemTestUtil.countTuples(join));
+        join.close();
+
+        // filters over the probed table apply to the tuples found, and
+        // several blocks of left tuples give the same rows
+        join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId()),
+                new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100)),
+                        new SeqScan(tid, inner.getId())));
+        join.setMemoryBudget(64);
+        join.open();
+        Map<List<Integer>, Integer> first = SystemTestUtil.countTuples(join);
+        assertEquals(expected(100), first);
+        join.rewind();
+        assertEquals(first, SystemTestUtil.countTuples(join));
+        join.close();
+    }
+
+    @Test public void testCanProbe() throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, t1Tuples);
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 10, 10, null, t2Tuples, 1);
+        assertTrue(IndexNestedLoopJoin.canProbe(new SeqScan(tid, btree.getId()), 1));
+        assertTrue(IndexNestedLoopJoin.canProbe(new Filter(new Predicate(0, Predicate.Op.EQUALS,
+                new IntField(3)), new SeqScan(tid, btree.getId())), 1));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, btree.getId()), 0));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, heap.getId()), 1));
+    }
+
+    @Test public void testSortedLookupsReuseLeaves() throws Exception {
+        BTreeFile inner = BTreeUtility.createRandomBTreeFile(2, 20000, 5000, null, t2Tuples, 0);
+        Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+        for (List<Integer> t : t2Tuples) {
+            byKey.computeIfAbsent(t.get(0), k -> new ArrayList<>()).add(t);
+        }
+        List<Integer> keys = new ArrayList<>();
+        for (int k = 0; k < 5000; k += 3) {
+            keys.add(k);
+        }
+        // ascending keys mostly stay on the leaves reached so far
+        BTreeKeyCursor cursor = inner.keyCursor(tid);
+        checkLookups(cursor, keys, byKey);
+        assertTrue(cursor.getDescentCount() < keys.size() / 20);
+        // keys in any order are still found
+        Collections.shuffle(keys);
+        cursor = inner.keyCursor(tid);
+        checkLookups(cursor, keys, byKey);
+        assertTrue(cursor.getDescentCount() > keys.size() / 3);
+    }
+
+    private static void checkLookups(BTreeKeyCursor cursor, List<Integer> keys,
+                                     Map<Integer, List<List<Integer>>> byKey) throws Exception {
+        for (int k : keys) {
+            List<List<Integer>> found = new ArrayList<>();
+            for (Tuple t : cursor.find(new IntField(k))) {
+                found.add(SystemTestUtil.tupleToList(t));
+            }
+            List<List<Integer>> expected = new ArrayList<>(byKey.getOrDefault(k, new ArrayList<>()));
+            assertEquals(expected.size(), found.size());
+            for (List<Integer> t : found) {
+                assertTrue(expected.remove(t));
+            }
+        }
+    }
+
+    @Test public void testOptimizer() throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, t1Tuples);
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 20000, 10000, null, t2Tuples, 0);
+        String key = btree.getTupleDesc().getFieldName(0);
+        OpIterator j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b",
+                heap.getTupleDesc().getFieldName(1), key, Predicate.Op.EQUALS),
+                new SeqScan(tid, heap.getId(), "a"), new SeqScan(tid, btree.getId(), "b"));
+        assertTrue(j instanceof IndexNestedLoopJoin);
+
+        LogicalPlan plan = new LogicalPlan();
+        plan.addScan(heap.getId(), "a");
+        plan.addScan(btree.getId(), "b");
+        plan.addScan(heap.getId(), "c");
+        JoinOptimizer jo = new JoinOptimizer(plan, new ArrayList<>());
+        LogicalJoinNode indexed = new LogicalJoinNode("a", "b", heap.getTupleDesc().getFieldName(1),
+                key, Predicate.Op.EQUALS);
+        LogicalJoinNode hashed = new LogicalJoinNode("a", "c", heap.getTupleDesc().getFieldName(1),
+                heap.getTupleDesc().getFieldName(0), Predicate.Op.EQUALS);
+        double scanCost = btree.numPages() * 1000.0;
+        // a few lookups cost less than scanning the inner table
+        assertTrue(jo.estimateJoinCost(indexed, 10, 20000, 1000, scanCost)
+                < jo.estimateJoinCost(hashed, 10, 20000, 1000, scanCost));
+        assertTrue(jo.estimateJoinCost(indexed, 10, 20000, 1000, scanCost) < scanCost);
+        // many lookups never cost much more than a scan per block
+        assertTrue(jo.estimateJoinCost(indexed, 20000, 20000, 1000, scanCost)
+                <= 1000 + scanCost + 20000);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that records appended through the log buffer end up in the log
+ * file intact once the log is forced.
+ */
+public class LogBufferTest extends SimpleDbTestBase {
+    private static final int UPDATES = 100;
+
+    // see the record layout in LogFile
+    private static long updateRecordSize(Page p) {
+        // page type tag, table id, page number, length, data
+        long image = 1 + 4 + 4 + 4 + p.getPageData().length;
+        return 4 + 8 + 2 * image + 8;
+    }
+
+    @Test public void testRecordsSpanningBufferFlushes() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        Page p = hf.readPage(pid);
+        // filling a whole page is logged with full images
+        Page empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+
+        File f = File.createTempFile("logbuffer", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        // stays open, so the checkpoint below cannot drop any record
+        TransactionId open = new TransactionId();
+        log.logXactionBegin(open);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        // about 800KB of updates, several buffers full
+        for (int i = 0; i < UPDATES; i++) {
+            log.logWrite(tid, empty, p);
+        }
+        log.logCommit(tid);
+
+        // two BEGINs, updates, COMMIT
+        long expected = 2 * 20 + UPDATES * updateRecordSize(p) + 20;
+        assertEquals(expected, log.getSize());
+        assertEquals(UPDATES + 3, log.getTotalRecords());
+
+        // nothing can be truncated; the checkpoint record lists the open
+        // transaction, the redo start and the page, which this log never
+        // saw written
+        log.logCheckpoint();
+        long dirtyPage = 1 + 4 + 4 + 8;
+        assertEquals(expected + 4 + 8 + 4 + 2 * 8 + 8 + 4 + dirtyPage + 8, log.getSize());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that sequential scans read pages ahead in the background and that
+ * read-ahead never hands out a stale page.
+ */
+public class PrefetchTest extends SimpleDbTestBase {
+    private static final int SCAN_PAGES = 64;
+
+    @Test public void testScanUsesReadAhead() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * SCAN_PAGES, null, tuples);
+        BufferPool bp = Database.resetBufferPool(4 * BufferPool.SCAN_RING_PAGES);
+        assertEquals(BufferPool.DEFAULT_PREFETCH_DEPTH, bp.getPrefetchDepth());
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertTrue(bp.getPrefetchHitCount() > 0);
+        assertEquals(SCAN_PAGES, bp.getPrefetchHitCount() + bp.getPrefetchMissCount());
+    }
+
+    @Test public void testDisabled() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, tuples);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setPrefetchDepth(0);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(0, bp.getPrefetchHitCount());
+        assertEquals(0, bp.getPrefetchMissCount());
+    }
+
+    @Test public void testNoStaleReadAhead() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2 - 1, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        HeapPageId p1 = new HeapPageId(f.getId(), 1);
+        bp.prefetchPage(p1);
+
+        // change the page on disk behind the pool, the way recovery and
+        // B+ tree page reuse do, and discard it as they must
+        HeapPage page = (HeapPage) f.readPage(p1);
+        Tuple magic = new Tuple(Utility.getTupleDesc(2));
+        magic.setField(0, new IntField(-42));
+        magic.setField(1, new IntField(-43));
+        page.insertTuple(magic);
+        f.writePage(page);
+        bp.discardPage(p1);
+
+        Transaction t = new Transaction();
+        t.start();
+        assertTrue(AbortEvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PrefetchTest.class);
+    }
+}
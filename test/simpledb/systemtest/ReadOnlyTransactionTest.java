@@ -0,0 +1,87 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.Transaction;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that read-only transactions leave the log alone and cannot write.
+ */
+public class ReadOnlyTransactionTest extends SimpleDbTestBase {
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+    }
+
+    @Test public void testScanWritesNoLogRecords() throws Exception {
+        // the first record truncates any old log, so start with one
+        Transaction first = new Transaction();
+        first.start();
+        first.commit();
+        int records = Database.getLogFile().getTotalRecords();
+
+        Transaction t = new Transaction(true);
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId());
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        t.commit();
+
+        assertEquals(1000, count);
+        assertEquals(records, Database.getLogFile().getTotalRecords());
+    }
+
+    @Test public void testLocksReleasedAtCompletion() throws Exception {
+        Transaction t = new Transaction(true);
+        t.start();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_ONLY);
+        assertTrue(Database.getBufferPool().holdsLock(t.getId(), pid));
+        t.commit();
+        assertFalse(Database.getBufferPool().holdsLock(t.getId(), pid));
+
+        // a writer can take the page right away
+        Transaction writer = new Transaction();
+        writer.start();
+        Database.getBufferPool().getPage(writer.getId(), pid, Permissions.READ_WRITE);
+        writer.commit();
+    }
+
+    @Test(expected = DbException.class)
+    public void testInsertRejected() throws Exception {
+        Transaction t = new Transaction(true);
+        t.start();
+        Insert insert = new Insert(t.getId(), new TupleIterator(Utility.getTupleDesc(2),
+                Collections.singletonList(Utility.getHeapTuple(1, 2))), hf.getId());
+        try {
+            insert.open();
+            insert.next();
+        } finally {
+            t.abort();
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadOnlyTransactionTest.class);
+    }
+}
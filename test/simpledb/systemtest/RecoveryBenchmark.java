@@ -0,0 +1,58 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.storage.PageId;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times recovery of the same log with one replay thread and with one per
+ * processor.  Not part of the systemtest suite; run it with
+ * <tt>ant runsystest -Dtest=RecoveryBenchmark</tt>.
+ */
+public class RecoveryBenchmark extends SimpleDbTestBase {
+    private static final int PAGES = 400;
+    private static final int TRANSACTIONS = 5000;
+    private static final int PAGES_PER_TRANSACTION = 8;
+    private static final int ROUNDS = 3;
+
+    @Test public void benchmark() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, PAGES * 504, null, null);
+        File f = File.createTempFile("recoverybench", ".log");
+        f.deleteOnExit();
+        try {
+            LogFile log = new LogFile(f);
+            Map<PageId, byte[]> expected = RecoveryTest.logDeletes(hf, log, TRANSACTIONS,
+                    PAGES_PER_TRANSACTION, new Random(1));
+            log.force();
+            System.out.println(TRANSACTIONS * PAGES_PER_TRANSACTION + " records on "
+                    + expected.size() + " pages, " + log.getSize() + " log bytes");
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int threads : new int[] { 1, Math.max(2, cores) }) {
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < ROUNDS; i++) {
+                    // recovery is idempotent, so every round replays the same log
+                    LogFile recovered = new LogFile(f);
+                    recovered.setRecoveryThreads(threads);
+                    long start = System.nanoTime();
+                    recovered.recover();
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.println(threads + " recovery threads: " + best / 1000000 + " ms");
+            }
+
+            for (Map.Entry<PageId, byte[]> e : expected.entrySet()) {
+                assertArrayEquals(e.getValue(), hf.readPage(e.getKey()).getPageData());
+            }
+        } finally {
+            new File(f.getPath() + ".00000000").delete();
+        }
+    }
+}
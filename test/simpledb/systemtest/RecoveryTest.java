@@ -0,0 +1,159 @@
+package simpledb.systemtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that recovery replays pages in parallel correctly and survives a
+ * record cut short by a crash.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+    // tuples of two int columns on one page
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private HeapFile hf;
+    private File f;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * TUPLES_PER_PAGE, null, null);
+        f = File.createTempFile("recovery", ".log");
+        f.deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        new File(f.getPath() + ".00000000").delete();
+    }
+
+    /**
+     * Log committed transactions that each delete one tuple from a few
+     * random pages of hf, without writing the pages to disk.
+     *
+     * @return the images the log leaves the changed pages in
+     */
+    static Map<PageId, byte[]> logDeletes(HeapFile hf, LogFile log, int transactions,
+                                          int pagesPerTransaction, Random rand) throws IOException, DbException {
+        Map<PageId, HeapPage> pages = new HashMap<>();
+        for (int i = 0; i < transactions; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int j = 0; j < pagesPerTransaction; j++) {
+                HeapPageId pid = new HeapPageId(hf.getId(), rand.nextInt(hf.numPages()));
+                HeapPage page = pages.computeIfAbsent(pid, k -> (HeapPage) hf.readPage(k));
+                if (page.getNumEmptySlots() == TUPLES_PER_PAGE) {
+                    continue;
+                }
+                HeapPage before = new HeapPage(pid, page.getPageData());
+                Tuple t = page.iterator().next();
+                page.deleteTuple(t);
+                log.logWrite(tid, before, page);
+            }
+            log.logCommit(tid);
+        }
+        Map<PageId, byte[]> images = new HashMap<>();
+        for (HeapPage page : pages.values()) {
+            images.put(page.getId(), page.getPageData());
+        }
+        return images;
+    }
+
+    @Test public void testParallelReplay() throws Exception {
+        LogFile log = new LogFile(f);
+        Map<PageId, byte[]> expected = logDeletes(hf, log, 200, 5, new Random(17));
+
+        // a transaction that never finishes deletes from every page
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        for (int p = 0; p < PAGES; p++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), p);
+            byte[] image = expected.containsKey(pid) ? expected.get(pid) : hf.readPage(pid).getPageData();
+            HeapPage before = new HeapPage(pid, image);
+            HeapPage after = new HeapPage(pid, image);
+            after.deleteTuple(after.iterator().next());
+            log.logWrite(loser, before, after);
+        }
+        log.force();
+
+        LogFile recovered = new LogFile(f);
+        recovered.setRecoveryThreads(4);
+        recovered.recover();
+        for (Map.Entry<PageId, byte[]> e : expected.entrySet()) {
+            assertArrayEquals(e.getValue(), hf.readPage(e.getKey()).getPageData());
+        }
+        recovered.shutdown();
+    }
+
+    @Test public void testPartialRecordAtEnd() throws Exception {
+        LogFile log = new LogFile(f);
+        byte[] empty = HeapPage.createEmptyPageData();
+        // full page images that overflow the log buffer, so the buffer is
+        // written out in the middle of a record that never completes
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        for (int p = 0; p < PAGES; p++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), p);
+            log.logWrite(loser, new HeapPage(pid, empty), hf.readPage(pid));
+        }
+
+        LogFile recovered = new LogFile(f);
+        recovered.recover();
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        assertArrayEquals(empty, hf.readPage(first).getPageData());
+
+        // records appended after recovery must be found by the next one
+        Map<PageId, byte[]> expected = logDeletes(hf, recovered, 1, 20, new Random(3));
+        recovered.force();
+        LogFile again = new LogFile(f);
+        again.recover();
+        for (Map.Entry<PageId, byte[]> e : expected.entrySet()) {
+            assertArrayEquals(e.getValue(), hf.readPage(e.getKey()).getPageData());
+        }
+        again.shutdown();
+    }
+
+    @Test public void testRedoesBTreePage() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 100, null, null, 0);
+        // 100 tuples fit on the first leaf
+        BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.LEAF);
+        BTreeLeafPage before = (BTreeLeafPage) bf.readPage(pid);
+        BTreeLeafPage after = new BTreeLeafPage(pid, before.getPageData(), 0);
+        after.deleteTuple(after.iterator().next());
+
+        LogFile log = new LogFile(f);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, before, after);
+        log.logCommit(tid);
+
+        LogFile recovered = new LogFile(f);
+        recovered.recover();
+        assertArrayEquals(after.getPageData(), bf.readPage(pid).getPageData());
+        recovered.shutdown();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
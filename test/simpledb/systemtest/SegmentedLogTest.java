@@ -0,0 +1,87 @@
+package simpledb.systemtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the log is split into segments and truncated by deleting
+ * whole segments.
+ */
+public class SegmentedLogTest extends SimpleDbTestBase {
+    private static final int SEGMENT_BYTES = 1024;
+    private static final int TRANSACTIONS = 500;
+
+    private File f;
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("segmented", ".log");
+        f.deleteOnExit();
+        log = new LogFile(f, SEGMENT_BYTES);
+    }
+
+    @After public void tearDown() throws IOException {
+        log.shutdown();
+        // the records of one test fill about 20 segments
+        for (int i = 0; i < 64; i++) {
+            segment(i).delete();
+        }
+    }
+
+    private void commitMany() throws IOException {
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logCommit(tid);
+        }
+    }
+
+    private File segment(int n) {
+        return new File(f.getPath() + String.format(".%08d", n));
+    }
+
+    @Test public void testAppendsFillSegments() throws Exception {
+        commitMany();
+        // a BEGIN and a COMMIT record take 20 bytes each
+        long bytes = TRANSACTIONS * 2 * 20;
+        assertEquals(bytes, log.getSize());
+        assertEquals((bytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES, log.getNumSegments());
+        assertEquals(SEGMENT_BYTES, segment(0).length());
+    }
+
+    @Test public void testCheckpointDeletesOldSegments() throws Exception {
+        commitMany();
+        int before = log.getNumSegments();
+        log.logCheckpoint();
+        // only the checkpoint record's segments are left
+        assertTrue(log.getNumSegments() <= 2);
+        assertFalse(segment(0).exists());
+        assertTrue(log.getNumSegments() < before);
+    }
+
+    @Test public void testActiveTransactionKeepsSegments() throws Exception {
+        TransactionId open = new TransactionId();
+        log.logXactionBegin(open);
+        commitMany();
+        log.logCheckpoint();
+        assertTrue(segment(0).exists());
+        assertTrue(log.getSize() > 20 + TRANSACTIONS * 2 * 20);
+
+        log.logCommit(open);
+        log.logCheckpoint();
+        assertFalse(segment(0).exists());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SegmentedLogTest.class);
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the sort-merge join, with and without sorting its children
+ * first, and that the optimizer picks it.
+ */
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private final List<List<Integer>> t1Tuples = new ArrayList<>();
+    private final List<List<Integer>> t2Tuples = new ArrayList<>();
+    private final TransactionId tid = new TransactionId();
+
+    private static boolean matches(Predicate.Op op, int v1, int v2) {
+        switch (op) {
+            case EQUALS: return v1 == v2;
+            case LESS_THAN: return v1 < v2;
+            case LESS_THAN_OR_EQ: return v1 <= v2;
+            case GREATER_THAN: return v1 > v2;
+            default: return v1 >= v2;
+        }
+    }
+
+    private Map<List<Integer>, Integer> expected(Predicate.Op op, int field1, int field2) {
+        return SystemTestUtil.joinTuples(t1Tuples, t2Tuples,
+                (t1, t2) -> matches(op, t1.get(field1), t2.get(field2)));
+    }
+
+    @Test public void testExternalSort() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, t1Tuples);
+        int before = SystemTestUtil.countSpillFiles();
+        ExternalSort sort = new ExternalSort(new SeqScan(tid, table.getId()), 1);
+        sort.setMemoryBudget(100);
+        sort.open();
+        // the 30 runs are merged into one file
+        assertEquals(before + 1, SystemTestUtil.countSpillFiles());
+        for (int pass = 0; pass < 2; pass++) {
+            List<List<Integer>> sorted = new ArrayList<>();
+            while (sort.hasNext()) {
+                sorted.add(SystemTestUtil.tupleToList(sort.next()));
+            }
+            for (int i = 1; i < sorted.size(); i++) {
+                assertTrue(sorted.get(i - 1).get(1) <= sorted.get(i).get(1));
+            }
+            List<List<Integer>> all = new ArrayList<>(t1Tuples);
+            for (List<Integer> t : sorted) {
+                assertTrue(all.remove(t));
+            }
+            assertTrue(all.isEmpty());
+            sort.rewind();
+        }
+        sort.close();
+        assertEquals(before, SystemTestUtil.countSpillFiles());
+    }
+
+    @Test public void testUnsortedInputs() throws Exception {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, t1Tuples);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 400, 100, null, t2Tuples);
+        for (Predicate.Op op : OPS) {
+            SortMergeJoin join = new SortMergeJoin(new JoinPredicate(1, op, 0),
+                    new SeqScan(tid, table1.getId()), new SeqScan(tid, table2.getId()));
+            // both children are sorted through spill files
+            join.setMemoryBudget(50);
+            join.open();
+            assertEquals(op.toString(), expected(op, 1, 0), SystemTestUtil.countTuples(join));
+            join.rewind();
+            assertEquals(op.toString(), expected(op, 1, 0), SystemTestUtil.countTuples(join));
+            join.close();
+        }
+    }
+
+    @Test public void testSortedInputs() throws Exception {
+        BTreeFile table1 = BTreeUtility.createRandomBTreeFile(2, 500, 200, null, t1Tuples, 0);
+        BTreeFile table2 = BTreeUtility.createRandomBTreeFile(2, 500, 200, null, t2Tuples, 1);
+        OpIterator scan1 = new SeqScan(tid, table1.getId());
+        OpIterator scan2 = new BTreeScan(tid, table2.getId(), null);
+        assertTrue(SortMergeJoin.isSorted(scan1, 0));
+        assertFalse(SortMergeJoin.isSorted(scan1, 1));
+        assertTrue(SortMergeJoin.isSorted(scan2, 1));
+        assertTrue(SortMergeJoin.isSorted(new Filter(new Predicate(1, Predicate.Op.GREATER_THAN,
+                new IntField(10)), scan2), 1));
+        for (Predicate.Op op : OPS) {
+            SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 1),
+                    new SeqScan(tid, table1.getId()), new BTreeScan(tid, table2.getId(), null));
+            // nothing to sort, so nothing to spill however small the budget
+            join.setMemoryBudget(1);
+            int before = SystemTestUtil.countSpillFiles();
+            join.open();
+            assertEquals(before, SystemTestUtil.countSpillFiles());
+            assertEquals(op.toString(), expected(op, 0, 1), SystemTestUtil.countTuples(join));
+            join.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotEquals() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, t1Tuples);
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                new SeqScan(tid, table.getId()), new SeqScan(tid, table.getId()));
+    }
+
+    private OpIterator instantiate(OpIterator plan1, OpIterator plan2, Predicate.Op op) throws Exception {
+        // the names without the table alias
+        String f1 = plan1.getTupleDesc().getFieldName(0).substring(2);
+        String f2 = plan2.getTupleDesc().getFieldName(0).substring(2);
+        return JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", f1, f2, op), plan1, plan2);
+    }
+
+    @Test public void testOptimizerChoice() throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, t1Tuples);
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 10, 10, null, t2Tuples, 0);
+        assertTrue(instantiate(new SeqScan(tid, heap.getId(), "a"), new SeqScan(tid, heap.getId(), "b"),
+                Predicate.Op.EQUALS) instanceof HashEquiJoin);
+        // unsorted range joins are not worth two sorts
+        assertTrue(instantiate(new SeqScan(tid, heap.getId(), "a"), new SeqScan(tid, heap.getId(), "b"),
+                Predicate.Op.GREATER_THAN_OR_EQ) instanceof Join);
+        assertTrue(instantiate(new SeqScan(tid, btree.getId(), "a"), new SeqScan(tid, btree.getId(), "b"),
+                Predicate.Op.GREATER_THAN_OR_EQ) instanceof SortMergeJoin);
+        assertTrue(instantiate(new SeqScan(tid, heap.getId(), "a"), new SeqScan(tid, heap.getId(), "b"),
+                Predicate.Op.NOT_EQUALS) instanceof Join);
+        assertTrue(instantiate(new SeqScan(tid, btree.getId(), "a"), new SeqScan(tid, btree.getId(), "b"),
+                Predicate.Op.EQUALS) instanceof SortMergeJoin);
+        assertTrue(instantiate(new SeqScan(tid, btree.getId(), "a"),
+                new OrderBy(0, true, new SeqScan(tid, heap.getId(), "b")),
+                Predicate.Op.EQUALS) instanceof SortMergeJoin);
+    }
+
+    @Test public void testCostModel() throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, t1Tuples);
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 10, 10, null, t2Tuples, 0);
+        LogicalPlan plan = new LogicalPlan();
+        plan.addScan(btree.getId(), "a");
+        plan.addScan(btree.getId(), "b");
+        plan.addScan(heap.getId(), "c");
+        plan.addScan(heap.getId(), "d");
+        JoinOptimizer jo = new JoinOptimizer(plan, new ArrayList<>());
+        String key = btree.getTupleDesc().getFieldName(0);
+        String field = heap.getTupleDesc().getFieldName(0);
+        for (Predicate.Op op : OPS) {
+            double merge = jo.estimateJoinCost(new LogicalJoinNode("a", "b", key, key, op),
+                    5000, 5000, 1000, 1000);
+            double other = jo.estimateJoinCost(new LogicalJoinNode("c", "d", field, field, op),
+                    5000, 5000, 1000, 1000);
+            // merging sorted inputs reads each once, like a hash join
+            // that fits in memory, and beats a nested loop
+            assertTrue(op.toString(), merge <= other);
+            if (op == Predicate.Op.EQUALS) {
+                assertEquals(1000 + 1000 + 5000 + 5000, merge, 0.001);
+            } else {
+                assertTrue(op.toString(), merge < other);
+            }
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks STEAL/NO-FORCE buffer management: transactions larger than the
+ * buffer pool, and recovery of pages written before commit.
+ */
+public class StealNoForceTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 5;
+    // twice as many pages as the pool holds
+    private static final int BIG = 504 * POOL_PAGES * 2;
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        // a fresh log for every test, recovery must not meet other tests' tables
+        super.setUp();
+        file = File.createTempFile("stealnoforce", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        Database.resetBufferPool(POOL_PAGES).setStealNoForce(true);
+    }
+
+    private void insert(Transaction t, int count) throws Exception {
+        insert(t, count, hf);
+    }
+
+    private static void insert(Transaction t, int count, HeapFile f) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        Insert insert = new Insert(t.getId(), new TupleIterator(Utility.getTupleDesc(2), tuples), f.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+    }
+
+    private int count() throws Exception {
+        Transaction t = new Transaction(true);
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        t.commit();
+        return n;
+    }
+
+    private int tuplesOnDisk() {
+        int n = 0;
+        for (int p = 0; p < hf.numPages(); p++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), p));
+            n += 504 - page.getNumEmptySlots();
+        }
+        return n;
+    }
+
+    private void crash() throws Exception {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getBufferPool().setStealNoForce(true);
+        Database.getLogFile().recover();
+    }
+
+    @Test public void testTransactionLargerThanPool() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, BIG);
+        t.commit();
+        assertEquals(BIG, count());
+    }
+
+    @Test public void testCommittedSurvivesCrash() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 100);
+        t.commit();
+        crash();
+        assertEquals(100, count());
+    }
+
+    @Test public void testStolenPagesUndoneAfterCrash() throws Exception {
+        Transaction committed = new Transaction();
+        committed.start();
+        insert(committed, 100);
+        committed.commit();
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, BIG);
+        // evicting its pages wrote uncommitted tuples to disk
+        assertTrue(tuplesOnDisk() > 100);
+        crash();
+        assertEquals(100, count());
+        assertEquals(100, tuplesOnDisk());
+    }
+
+    @Test public void testAbortRollsBackStolenPages() throws Exception {
+        Transaction committed = new Transaction();
+        committed.start();
+        insert(committed, 100);
+        committed.commit();
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, BIG);
+        t.abort();
+        assertEquals(100, count());
+    }
+
+    @Test public void testCleanerWritesCommittedPages() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 100);
+        t.commit();
+        // NO-FORCE: the commit left the page dirty for the page cleaner
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Database.getBufferPool().getCleanedPageCount() == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(Database.getBufferPool().getCleanedPageCount() > 0);
+        assertEquals(100, tuplesOnDisk());
+    }
+
+    @Test public void testPagesWrittenWhileCommitsForce() throws Exception {
+        File other = File.createTempFile("stealnoforce", ".dat");
+        other.deleteOnExit();
+        HeapFile hf2 = Utility.createEmptyHeapFile(other.getAbsolutePath(), 2);
+        List<Throwable> errors = new ArrayList<>();
+        // commits are forced by the log's flusher while the other thread,
+        // and the page cleaner, force the log to write pages; writeBack
+        // asserts that each write found its records on disk
+        Thread committer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 100; i++) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    insert(t, 20, hf);
+                    t.commit();
+                }
+            } catch (Throwable e) {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            }
+        });
+        committer.start();
+        for (int i = 0; i < 100; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            insert(t, 20, hf2);
+            Database.getBufferPool().flushPages(t.getId());
+            t.commit();
+        }
+        committer.join();
+        assertEquals("committer failed: " + errors, 0, errors.size());
+        assertEquals(2000, count());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
@@ -3,10 +3,12 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
+import java.util.function.BiPredicate;
 
 import org.junit.Assert;
 
@@ -151,6 +153,43 @@ public class SystemTestUtil {
         }
     }
 
+    /** @return the remaining tuples of an open iterator, counted by their values */
+    public static Map<List<Integer>, Integer> countTuples(OpIterator iterator)
+            throws DbException, TransactionAbortedException {
+        Map<List<Integer>, Integer> res = new HashMap<>();
+        while (iterator.hasNext()) {
+            res.merge(tupleToList(iterator.next()), 1, Integer::sum);
+        }
+        return res;
+    }
+
+    /**
+     * Joins two lists of tuples by comparing every pair, as an oracle for
+     * the join operators.
+     * @return the concatenated pairs that match, counted by their values
+     */
+    public static Map<List<Integer>, Integer> joinTuples(List<List<Integer>> tuples1,
+            List<List<Integer>> tuples2, BiPredicate<List<Integer>, List<Integer>> match) {
+        Map<List<Integer>, Integer> res = new HashMap<>();
+        for (List<Integer> t1 : tuples1) {
+            for (List<Integer> t2 : tuples2) {
+                if (match.test(t1, t2)) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    res.merge(out, 1, Integer::sum);
+                }
+            }
+        }
+        return res;
+    }
+
+    /** @return the number of operator spill files in the temporary directory */
+    public static int countSpillFiles() {
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list(
+                (dir, name) -> name.startsWith("spill") && name.endsWith(".tmp"));
+        return files == null ? 0 : files.length;
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM